@@ -0,0 +1,72 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.model.Message;
+import net.kotiyasanae.chatserver.service.MessageDispatcher;
+import net.kotiyasanae.chatserver.websocket.OverflowPolicy;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 广播扇出：逐个接收者序列化 vs 编码一次共享帧 vs 经MessageDispatcher出站队列（ChatService实际路径）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"100", "1000", "5000"})
+    int recipients;
+
+    private static final WriteCallback NOOP = new WriteCallback() {
+        @Override
+        public void writeFailed(Throwable x) {
+        }
+
+        @Override
+        public void writeSuccess() {
+        }
+    };
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private List<Session> sessions;
+    private Message message;
+    private MessageDispatcher dispatcher;
+
+    @Setup
+    public void setUp() {
+        sessions = MockSessions.open(recipients);
+        dispatcher = new MessageDispatcher(256, OverflowPolicy.DROP_OLDEST);
+        sessions.forEach(dispatcher::open);
+        message = new Message(Message.MessageType.CHAT, "大家好，今天的会议改到下午三点", "Alice");
+    }
+
+    @Benchmark
+    public void perRecipientSerialization() throws IOException {
+        for (Session session : sessions) {
+            session.getRemote().sendString(mapper.writeValueAsString(message));
+        }
+    }
+
+    @Benchmark
+    public void sharedFrame() throws IOException {
+        OutboundFrame frame = MessageCodec.encode(message);
+        for (Session session : sessions) {
+            frame.sendTo(session, NOOP);
+        }
+    }
+
+    @Benchmark
+    public void dispatcher() {
+        dispatcher.broadcast(dispatcher.encode(message), sessions, null);
+    }
+}
@@ -0,0 +1,88 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.cluster.LocalClusterBus;
+import net.kotiyasanae.chatserver.command.Command;
+import net.kotiyasanae.chatserver.command.CommandContext;
+import net.kotiyasanae.chatserver.history.RecentMessages;
+import net.kotiyasanae.chatserver.logging.AuditLog;
+import net.kotiyasanae.chatserver.model.Message;
+import net.kotiyasanae.chatserver.service.ClusterService;
+import net.kotiyasanae.chatserver.service.CommandService;
+import net.kotiyasanae.chatserver.service.HistoryService;
+import net.kotiyasanae.chatserver.service.MessageDispatcher;
+import net.kotiyasanae.chatserver.service.PresenceService;
+import net.kotiyasanae.chatserver.service.RoomRegistry;
+import net.kotiyasanae.chatserver.service.UserRegistry;
+import net.kotiyasanae.chatserver.websocket.OverflowPolicy;
+import org.eclipse.jetty.websocket.api.Session;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommandService.handleCommand：命令查找与执行，回复经出站队列写到假会话
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class CommandBenchmark {
+    @Param({".ping", ".msg bob 晚上一起吃饭吗", ".rooms", ".nosuchcommand arg"})
+    String content;
+
+    private CommandService commands;
+    private Session alice;
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        UserRegistry users = new UserRegistry();
+        RoomRegistry rooms = new RoomRegistry();
+        MessageDispatcher dispatcher = new MessageDispatcher(256, OverflowPolicy.DROP_OLDEST);
+        HistoryService history = new HistoryService(new RecentMessages(50, 256 * 1024, 0),
+                new RecentMessages(256, 512 * 1024, 0), null, dispatcher, 50);
+        PresenceService presence = new PresenceService(users, dispatcher, 0);
+        ClusterService cluster = new ClusterService(new LocalClusterBus("local"), users, rooms, history,
+                dispatcher, presence, 0);
+        commands = new CommandService(users, rooms, history, dispatcher, cluster, AuditLog.disabled());
+
+        List<Session> sessions = MockSessions.open(2);
+        String[] names = {"alice", "bob"};
+        for (int i = 0; i < names.length; i++) {
+            Session session = sessions.get(i);
+            dispatcher.open(session);
+            users.claim(session, names[i]);
+            rooms.join(session, RoomRegistry.DEFAULT_ROOM);
+        }
+        alice = sessions.get(0);
+        message = new Message(Message.MessageType.CHAT, content, "alice");
+    }
+
+    @Benchmark
+    public boolean handleCommand() throws IOException {
+        return commands.handleCommand(alice, message);
+    }
+
+    /**
+     * 原先的解析方式：正则切分再转小写，作为对照
+     */
+    @Benchmark
+    public String regexSplit() {
+        String[] parts = content.trim().split("\\s+", 2);
+        return parts[0].toLowerCase();
+    }
+
+    /**
+     * 命令表查找并统计参数个数，不含执行
+     */
+    @Benchmark
+    public int lookup() {
+        String line = content.trim();
+        Command command = commands.getRegistry().find(line);
+        return command == null ? -1 : new CommandContext(alice, "alice", line, command).argCount();
+    }
+}
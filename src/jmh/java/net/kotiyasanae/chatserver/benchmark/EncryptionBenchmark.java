@@ -0,0 +1,72 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.encryption.AesSessionKey;
+import net.kotiyasanae.chatserver.encryption.RSAEncryption;
+import net.kotiyasanae.chatserver.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息加解密往返：每次新建RSA Cipher（原实现） vs 缓存Cipher vs 混合RSA+AES-GCM
+ * 使用 -bm sample 可得到p99延迟
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+    private RSAEncryption rsa;
+    private AesSessionKey clientKey;
+    private AesSessionKey serverKey;
+    private PublicKey publicKey;
+    private PrivateKey privateKey;
+    private Message message;
+
+    @Setup
+    public void setUp() throws Exception {
+        rsa = new RSAEncryption();
+        clientKey = rsa.newSessionKey();
+        serverKey = rsa.unwrapSessionKey(rsa.wrapSessionKey(clientKey));
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(
+                Base64.getDecoder().decode(rsa.getPublicKeyString())));
+        privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(
+                Base64.getDecoder().decode(rsa.getPrivateKeyString())));
+        message = new Message(Message.MessageType.CHAT, "大家好，今天的会议改到下午三点", "Alice");
+    }
+
+    @Benchmark
+    public String legacyRsaRoundTrip() throws Exception {
+        // 原实现：每条消息 getInstance + init
+        Cipher encryptCipher = Cipher.getInstance("RSA");
+        encryptCipher.init(Cipher.ENCRYPT_MODE, publicKey);
+        String encrypted = Base64.getEncoder().encodeToString(
+                encryptCipher.doFinal(message.getContent().getBytes(StandardCharsets.UTF_8)));
+
+        Cipher decryptCipher = Cipher.getInstance("RSA");
+        decryptCipher.init(Cipher.DECRYPT_MODE, privateKey);
+        return new String(decryptCipher.doFinal(Base64.getDecoder().decode(encrypted)), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Message cachedRsaRoundTrip() {
+        return rsa.decryptMessage(rsa.encryptMessage(message));
+    }
+
+    @Benchmark
+    public Message hybridAesGcmRoundTrip() {
+        // 客户端加密、服务器解密，两端的IV方向不同
+        return rsa.decryptMessage(rsa.encryptMessage(message, clientKey), serverKey);
+    }
+}
@@ -0,0 +1,109 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.pipeline.ContentFilterStage;
+import net.kotiyasanae.chatserver.pipeline.ExecutionMode;
+import net.kotiyasanae.chatserver.pipeline.MessageContext;
+import net.kotiyasanae.chatserver.pipeline.MessagePipeline;
+import net.kotiyasanae.chatserver.pipeline.MessageStage;
+import net.kotiyasanae.chatserver.pipeline.ValidateStage;
+import net.kotiyasanae.chatserver.service.MessageDispatcher;
+import net.kotiyasanae.chatserver.websocket.OverflowPolicy;
+import org.eclipse.jetty.websocket.api.Session;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 入站执行模式：每个会话各发一条消息，由模拟的I/O线程池提交到入站管道，测量全部处理完的时间
+ * <p>
+ * 每 blockEvery 条消息中有一条在分发阶段阻塞1ms（模拟集群用户名申请等阻塞调用），
+ * IO模式下阻塞占用I/O线程，SERIAL/VIRTUAL模式下只占用工作线程。
+ * VIRTUAL需要在JDK 21+上运行: gradle jmh -PjmhArgs="ExecutionMode -p mode=VIRTUAL"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ExecutionModeBenchmark {
+    private static final int IO_THREADS = 8;
+    private static final String RAW = "{\"type\":\"CHAT\",\"content\":\"大家好，今天的会议改到下午三点\",\"sender\":\"alice\"}";
+
+    @Param({"IO", "SERIAL"})
+    ExecutionMode mode;
+
+    @Param({"10000"})
+    int sessions;
+
+    @Param({"0", "100"})
+    int blockEvery;
+
+    @Param({"32"})
+    int workerThreads;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    private ExecutorService io;
+    private ExecutorService workers;
+    private MessagePipeline pipeline;
+    private List<Session> sessionList;
+    private volatile CountDownLatch done;
+
+    @Setup
+    public void setUp() {
+        sessionList = MockSessions.open(sessions);
+        MessageDispatcher dispatcher = new MessageDispatcher(256, OverflowPolicy.DROP_OLDEST);
+        sessionList.forEach(dispatcher::open);
+
+        io = Executors.newFixedThreadPool(IO_THREADS);
+        if (mode == ExecutionMode.VIRTUAL) {
+            workers = ExecutionMode.newVirtualThreadExecutor();
+            if (workers == null) {
+                throw new IllegalStateException("Virtual threads require JDK 21+");
+            }
+        } else if (mode == ExecutionMode.SERIAL) {
+            workers = Executors.newFixedThreadPool(workerThreads);
+        }
+
+        MessageStage dispatch = MessageStage.of("dispatch", context -> {
+            if (blockEvery > 0 && sequence.incrementAndGet() % blockEvery == 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            dispatcher.send(context.getSession(), context.getMessage());
+            done.countDown();
+            return true;
+        });
+        pipeline = new MessagePipeline("bench", Arrays.asList(new ValidateStage(), new ContentFilterStage(2000),
+                dispatch), mode, workers, context -> done.countDown());
+    }
+
+    @TearDown
+    public void tearDown() {
+        io.shutdownNow();
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void handleOnePerSession() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(sessions);
+        done = latch;
+        for (int t = 0; t < IO_THREADS; t++) {
+            int offset = t;
+            io.execute(() -> {
+                for (int i = offset; i < sessions; i += IO_THREADS) {
+                    pipeline.submit(new MessageContext(sessionList.get(i), RAW));
+                }
+            });
+        }
+        latch.await();
+    }
+}
@@ -0,0 +1,66 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.model.Message;
+import net.kotiyasanae.chatserver.service.FanoutShards;
+import net.kotiyasanae.chatserver.service.MessageDispatcher;
+import net.kotiyasanae.chatserver.websocket.OverflowPolicy;
+import org.eclipse.jetty.websocket.api.Session;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大房间广播到最后一个接收者的时间：调用线程逐个投递（shards=0）vs 分片线程并行投递
+ * <p>
+ * 成员集合与RoomRegistry一样是ConcurrentHashMap的键集合；分片投递时等待最后一个分片完成。
+ * 并行的收益取决于可用的CPU核数，分片数不应超过核数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class FanoutBenchmark {
+    @Param({"1000", "10000", "50000"})
+    int sessions;
+
+    @Param({"0", "2", "4"})
+    int shards;
+
+    private Set<Session> members;
+    private MessageDispatcher dispatcher;
+    private OutboundFrame frame;
+
+    @Setup
+    public void setUp() {
+        List<Session> list = MockSessions.open(sessions);
+        members = ConcurrentHashMap.newKeySet();
+        members.addAll(list);
+        dispatcher = new MessageDispatcher(256, OverflowPolicy.DROP_OLDEST, shards);
+        list.forEach(dispatcher::open);
+        frame = dispatcher.encode(new Message(Message.MessageType.CHAT, "大家好，今天的会议改到下午三点", "Alice"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Benchmark
+    public void timeToLastRecipient() throws InterruptedException {
+        FanoutShards fanout = dispatcher.getShards();
+        if (fanout == null) {
+            dispatcher.broadcast(frame, members, null);
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        fanout.publish(frame, members, null, done::countDown);
+        done.await();
+    }
+}
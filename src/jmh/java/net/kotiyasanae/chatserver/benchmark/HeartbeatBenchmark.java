@@ -0,0 +1,97 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.heartbeat.HeartbeatMonitor;
+import net.kotiyasanae.chatserver.heartbeat.TimerWheel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 心跳的开销：每个入站帧的记录，以及时间轮在大量连接下扫过一个心跳间隔的成本
+ * <p>
+ * 对照组是每个连接一个定时任务、收到消息时取消并重新安排的做法（ScheduledThreadPoolExecutor）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class HeartbeatBenchmark {
+    private static final long INTERVAL = 30_000;
+    private static final long TICK = 500;
+
+    @Param({"10000", "100000"})
+    int sessions;
+
+    private HeartbeatMonitor monitor;
+    private HeartbeatMonitor.Heartbeat heartbeat;
+    private TimerWheel wheel;
+    private long now;
+    private ScheduledThreadPoolExecutor scheduler;
+    private ScheduledFuture<?>[] futures;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        monitor = new HeartbeatMonitor(INTERVAL, 10_000, TICK, batch -> { });
+        heartbeat = monitor.register(MockSessions.open());
+
+        // 活跃的连接：每次到期时都在间隔内有过入站帧，只需按间隔重新挂上时间轮
+        wheel = new TimerWheel(TICK, 512, 0);
+        for (int i = 0; i < sessions; i++) {
+            wheel.schedule(t -> INTERVAL, i % INTERVAL);
+        }
+        wheel.advance(0);
+
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        futures = new ScheduledFuture<?>[sessions];
+        for (int i = 0; i < sessions; i++) {
+            futures[i] = scheduler.schedule(() -> { }, INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        monitor.close();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 每个入站帧的心跳记录
+     */
+    @Benchmark
+    public void touch() {
+        heartbeat.touch();
+    }
+
+    /**
+     * 对照：每个入站帧取消并重新安排该连接的超时任务
+     */
+    @Benchmark
+    public ScheduledFuture<?> rescheduleTask() {
+        int i = next;
+        next = i + 1 == sessions ? 0 : i + 1;
+        futures[i].cancel(false);
+        return futures[i] = scheduler.schedule(() -> { }, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 时间轮推进一个心跳间隔，每个连接检查一次，结果按连接平均
+     */
+    @Benchmark
+    @OperationsPerInvocation(100_000)
+    public int sweepInterval() {
+        int executed = 0;
+        // 按10万个连接折算，连接数不同时多扫或少扫几个间隔
+        int rounds = Math.max(1, 100_000 / sessions);
+        for (int r = 0; r < rounds; r++) {
+            now += INTERVAL;
+            executed += wheel.advance(now);
+        }
+        return executed;
+    }
+}
@@ -0,0 +1,61 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.logging.AsyncLogger;
+import net.kotiyasanae.chatserver.logging.LogSampler;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息处理线程上一条聊天日志的开销：同步slf4j-simple、异步队列、采样后的异步队列
+ * <p>
+ * 日志写到 /dev/null，同步方式的开销只包括格式化和加锁写出，实际写终端或磁盘时更高。
+ * 异步方式在写线程跟不上时会丢弃日志，测的是调用线程的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.logFile=/dev/null")
+public class LoggingBenchmark {
+    private static final String CONTENT = "大家好，今天的会议改到下午三点";
+
+    private Logger sync;
+    private AsyncLogger async;
+    private LogSampler sampler;
+
+    @Setup
+    public void setUp() {
+        sync = LoggerFactory.getLogger("bench.sync");
+        async = AsyncLogger.getLogger(LoggingBenchmark.class);
+        sampler = LogSampler.create("bench", 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        AsyncLogger.shutdown();
+    }
+
+    @Benchmark
+    public void syncConcat() {
+        sync.info("alice" + " sent message to " + "lobby" + ": " + CONTENT);
+    }
+
+    @Benchmark
+    public void syncParameterized() {
+        sync.info("{} sent message to {}: {}", "alice", "lobby", CONTENT);
+    }
+
+    @Benchmark
+    public void async() {
+        async.info("{} sent message to {}: {}", "alice", "lobby", CONTENT);
+    }
+
+    @Benchmark
+    public void asyncSampled() {
+        async.info(sampler, "{} sent message to {}: {}", "alice", "lobby", CONTENT);
+    }
+}
@@ -0,0 +1,58 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.codec.BinaryCodec;
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message的JSON与二进制编解码
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+    private Message message;
+    private String json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        message = new Message(Message.MessageType.CHAT, "大家好，今天的会议改到下午三点", "Alice");
+        message.setRoom("lobby");
+        json = MessageCodec.encode(message).text();
+        binary = BinaryCodec.encode(message);
+    }
+
+    @Benchmark
+    public OutboundFrame encode() throws IOException {
+        return MessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return MessageCodec.decode(json);
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException {
+        return MessageCodec.decode(MessageCodec.encode(message).text());
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decodeBinary() {
+        return BinaryCodec.decode(binary, 0, binary.length);
+    }
+}
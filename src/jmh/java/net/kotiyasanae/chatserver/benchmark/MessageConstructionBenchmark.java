@@ -0,0 +1,41 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message构造函数中的时间戳格式化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageConstructionBenchmark {
+    private static final DateTimeFormatter CACHED = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Benchmark
+    public Message newMessage() {
+        return new Message(Message.MessageType.CHAT, "hello", "Alice");
+    }
+
+    @Benchmark
+    public String formatWithNewPattern() {
+        return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+    }
+
+    @Benchmark
+    public String formatWithCachedPattern() {
+        return LocalDateTime.now().format(CACHED);
+    }
+
+    @Benchmark
+    public long epochMillis() {
+        return System.currentTimeMillis();
+    }
+}
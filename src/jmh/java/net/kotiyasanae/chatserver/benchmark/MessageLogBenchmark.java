@@ -0,0 +1,72 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+import net.kotiyasanae.chatserver.history.MessageLog;
+import net.kotiyasanae.chatserver.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 消息日志：持续追加（含组提交fsync）与按房间回放的吞吐
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageLogBenchmark {
+    private static final int BATCH = 1000;
+    private static final int ROOMS = 10;
+
+    private Path dir;
+    private MessageLog log;
+    private byte[] frame;
+    private int room;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("message-log-bench");
+        log = new MessageLog(dir, 200, 65536, 64L * 1024 * 1024, 0, 0);
+        frame = MessageCodec.encode(new Message(Message.MessageType.CHAT,
+                "大家好，今天的会议改到下午三点", "Alice")).bytes();
+
+        // 预先写入十万条记录供回放使用
+        for (int i = 0; i < 100_000; i++) {
+            while (!log.append("room" + (i % ROOMS), frame)) {
+                log.flush();
+            }
+        }
+        log.flush();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void appendDurable() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            log.append("room" + (i % ROOMS), frame);
+        }
+        log.flush();
+    }
+
+    @Benchmark
+    public List<byte[]> replayLast50() {
+        room = (room + 1) % ROOMS;
+        return log.readLast("room" + room, 50);
+    }
+}
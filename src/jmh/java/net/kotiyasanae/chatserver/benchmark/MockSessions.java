@@ -0,0 +1,65 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.extensions.OutgoingFrames;
+import org.eclipse.jetty.websocket.common.LogicalConnection;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试用的假会话，使用真实的WebSocketRemoteEndpoint，写出时立即完成
+ */
+final class MockSessions {
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 50000);
+
+    private MockSessions() {
+    }
+
+    static List<Session> open(int count) {
+        List<Session> sessions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sessions.add(open());
+        }
+        return sessions;
+    }
+
+    static Session open() {
+        OutgoingFrames wire = (frame, callback, batchMode) -> {
+            if (callback != null) {
+                callback.writeSuccess();
+            }
+        };
+        LogicalConnection connection = proxy(LogicalConnection.class);
+        WebSocketRemoteEndpoint remote = new WebSocketRemoteEndpoint(connection, wire);
+
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (self, method, args) -> {
+                    switch (method.getName()) {
+                        case "getRemote":
+                            return remote;
+                        case "isOpen":
+                            return true;
+                        case "getRemoteAddress":
+                            return ADDRESS;
+                        case "hashCode":
+                            return System.identityHashCode(self);
+                        case "equals":
+                            return self == args[0];
+                        case "toString":
+                            return "MockSession@" + Integer.toHexString(System.identityHashCode(self));
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (self, method, args) -> method.getReturnType() == boolean.class ? Boolean.TRUE : null);
+    }
+}
@@ -0,0 +1,90 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.codec.BinaryCodec;
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+import net.kotiyasanae.chatserver.model.Message;
+import net.kotiyasanae.chatserver.ratelimit.RateLimiter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入站限流的开销：区分命令 + 连接和地址两级令牌桶，与完整解码一条消息对比
+ * <p>
+ * 额度设得很大，测的是放行路径；rejected 用耗尽的桶测拒绝路径。
+ * 多线程运行（-t 4）时所有线程共享同一地址的桶，可观察CAS竞争
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+    private RateLimiter limiter;
+    private RateLimiter exhausted;
+    private InetAddress address;
+    private String json;
+    private byte[] binary;
+
+    @State(Scope.Thread)
+    public static class Connection {
+        RateLimiter.Quota quota;
+        RateLimiter.Quota exhaustedQuota;
+
+        @Setup
+        public void setUp(RateLimiterBenchmark benchmark) {
+            quota = benchmark.limiter.open(benchmark.address);
+            exhaustedQuota = benchmark.exhausted.open(benchmark.address);
+            while (exhaustedQuota.tryAcquire(RateLimiter.Kind.CHAT)) {
+                // 耗尽令牌
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            quota.close();
+            exhaustedQuota.close();
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        limiter = new RateLimiter(1e9, 1_000_000, 1e9, 1_000_000, 20);
+        exhausted = new RateLimiter(0.001, 1, 0.001, 1, 20);
+        address = InetAddress.getLoopbackAddress();
+        Message message = new Message(Message.MessageType.CHAT, "大家好，今天的会议改到下午三点", "Alice");
+        message.setRoom("lobby");
+        json = MessageCodec.encode(message).text();
+        binary = BinaryCodec.encode(message);
+    }
+
+    @Benchmark
+    public boolean classifyJson() {
+        return MessageCodec.isCommand(json);
+    }
+
+    @Benchmark
+    public boolean classifyBinary() {
+        return BinaryCodec.isCommand(binary, 0, binary.length);
+    }
+
+    @Benchmark
+    public boolean acquire(Connection connection) {
+        return connection.quota.tryAcquire(MessageCodec.isCommand(json)
+                ? RateLimiter.Kind.COMMAND : RateLimiter.Kind.CHAT);
+    }
+
+    @Benchmark
+    public boolean rejected(Connection connection) {
+        return connection.exhaustedQuota.tryAcquire(MessageCodec.isCommand(json)
+                ? RateLimiter.Kind.COMMAND : RateLimiter.Kind.CHAT);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return MessageCodec.decode(json);
+    }
+}
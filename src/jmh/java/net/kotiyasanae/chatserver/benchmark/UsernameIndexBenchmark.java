@@ -0,0 +1,77 @@
+package net.kotiyasanae.chatserver.benchmark;
+
+import net.kotiyasanae.chatserver.service.UserRegistry;
+import org.eclipse.jetty.websocket.api.Session;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户名查找：线性扫描 Map&lt;Session, String&gt; vs 双向索引
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsernameIndexBenchmark {
+    @Param({"100000"})
+    int sessions;
+
+    private final Map<Session, String> userSessions = new ConcurrentHashMap<>();
+    private final UserRegistry users = new UserRegistry();
+    private Session newcomer;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<Session> open = MockSessions.open(sessions);
+        for (int i = 0; i < sessions; i++) {
+            userSessions.put(open.get(i), "user" + i);
+            users.claim(open.get(i), "user" + i);
+        }
+        newcomer = MockSessions.open();
+    }
+
+    private String nextName() {
+        next = (next + 7919) % sessions;
+        return "user" + next;
+    }
+
+    @Benchmark
+    public boolean linearJoinCheck() {
+        // 新用户加入时的重名检查，名字不存在所以会扫描整个Map
+        return userSessions.containsValue("newcomer");
+    }
+
+    @Benchmark
+    public Session linearFindByUsername() {
+        String username = nextName();
+        for (Map.Entry<Session, String> entry : userSessions.entrySet()) {
+            if (entry.getValue().equals(username) && entry.getKey().isOpen()) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public boolean indexJoinCheck() {
+        return users.isTaken("newcomer");
+    }
+
+    @Benchmark
+    public Session indexFindByUsername() {
+        return users.getSession(nextName());
+    }
+
+    @Benchmark
+    public String indexClaimRelease() {
+        users.claim(newcomer, "newcomer");
+        return users.release(newcomer);
+    }
+}
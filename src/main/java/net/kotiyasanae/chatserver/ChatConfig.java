@@ -0,0 +1,379 @@
+package net.kotiyasanae.chatserver;
+
+import net.kotiyasanae.chatserver.pipeline.ExecutionMode;
+import net.kotiyasanae.chatserver.websocket.OverflowPolicy;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 服务器配置，通过系统属性覆盖默认值，例如 -Dchat.outbox.capacity=512
+ */
+public final class ChatConfig {
+    private static final ChatConfig INSTANCE = new ChatConfig();
+
+    private final int outboxCapacity;
+    private final OverflowPolicy outboxOverflowPolicy;
+    private final long presenceWindowMillis;
+    private final Path historyDir;
+    private final int historyReplayCount;
+    private final int historyQueueCapacity;
+    private final long historySegmentBytes;
+    private final long historyRetentionBytes;
+    private final long historyRetentionMillis;
+    private final int backlogEntries;
+    private final long backlogBytes;
+    private final long backlogIdleMillis;
+    private final boolean encryptionEnabled;
+    private final Path encryptionKeyFile;
+    private final int pipelineWorkers;
+    private final ExecutionMode executionMode;
+    private final int maxMessageLength;
+    private final boolean deflateEnabled;
+    private final int deflateMinBytes;
+    private final String clusterNode;
+    private final List<String> clusterPeers;
+    private final int clusterQueueCapacity;
+    private final long clusterTimeoutMillis;
+    private final double chatRate;
+    private final int chatBurst;
+    private final double commandRate;
+    private final int commandBurst;
+    private final int rateLimitAddressFactor;
+    private final boolean metricsEnabled;
+    private final int logQueueCapacity;
+    private final double logSampleRate;
+    private final Path auditFile;
+    private final int auditQueueCapacity;
+    private final long heartbeatIntervalMillis;
+    private final long heartbeatTimeoutMillis;
+    private final long heartbeatTickMillis;
+    private final long resumeGraceMillis;
+    private final int resumeBufferEntries;
+    private final long resumeBufferBytes;
+    private final int fanoutShards;
+    private final int admissionMaxConnections;
+    private final int admissionMaxPerAddress;
+    private final double admissionRate;
+    private final int admissionBurst;
+    private final double admissionShedBroadcastMillis;
+    private final long admissionShedQueuedFrames;
+    private final long admissionConnectTimeoutMillis;
+
+    private ChatConfig() {
+        this.outboxCapacity = Integer.getInteger("chat.outbox.capacity", 256);
+        this.outboxOverflowPolicy = OverflowPolicy.valueOf(
+                System.getProperty("chat.outbox.overflow", "DROP_OLDEST").trim().toUpperCase());
+        this.presenceWindowMillis = Long.getLong("chat.presence.window.ms", 100);
+
+        String dir = System.getProperty("chat.history.dir");
+        this.historyDir = dir == null || dir.trim().isEmpty() ? null : Paths.get(dir.trim());
+        this.historyReplayCount = Integer.getInteger("chat.history.replay", 50);
+        this.historyQueueCapacity = Integer.getInteger("chat.history.queue", 65536);
+        this.historySegmentBytes = Long.getLong("chat.history.segment.bytes", 64L * 1024 * 1024);
+        this.historyRetentionBytes = Long.getLong("chat.history.retention.bytes", 1024L * 1024 * 1024);
+        this.historyRetentionMillis = Long.getLong("chat.history.retention.hours", 7 * 24) * 3600_000L;
+
+        this.backlogEntries = Integer.getInteger("chat.backlog.entries", 50);
+        this.backlogBytes = Long.getLong("chat.backlog.bytes", 256L * 1024);
+        this.backlogIdleMillis = Long.getLong("chat.backlog.idle.minutes", 30) * 60_000L;
+
+        this.encryptionEnabled = Boolean.getBoolean("chat.encryption.enabled");
+        String keyFile = System.getProperty("chat.encryption.key.file");
+        this.encryptionKeyFile = keyFile == null || keyFile.trim().isEmpty() ? null : Paths.get(keyFile.trim());
+        this.pipelineWorkers = Integer.getInteger("chat.pipeline.workers",
+                Runtime.getRuntime().availableProcessors());
+        this.executionMode = ExecutionMode.valueOf(
+                System.getProperty("chat.execution.mode", "IO").trim().toUpperCase());
+        this.maxMessageLength = Integer.getInteger("chat.message.max.length", 2000);
+
+        this.deflateEnabled = Boolean.parseBoolean(System.getProperty("chat.deflate.enabled", "true"));
+        this.deflateMinBytes = Integer.getInteger("chat.deflate.min.bytes", 256);
+
+        String node = System.getProperty("chat.cluster.node");
+        this.clusterNode = node == null || node.trim().isEmpty() ? null : node.trim();
+        List<String> peers = new ArrayList<>();
+        for (String peer : System.getProperty("chat.cluster.peers", "").split(",")) {
+            if (!peer.trim().isEmpty()) {
+                peers.add(peer.trim());
+            }
+        }
+        this.clusterPeers = Collections.unmodifiableList(peers);
+        this.clusterQueueCapacity = Integer.getInteger("chat.cluster.queue", 65536);
+        this.clusterTimeoutMillis = Long.getLong("chat.cluster.timeout.ms", 2000);
+
+        this.chatRate = Double.parseDouble(System.getProperty("chat.ratelimit.chat.rate", "5"));
+        this.chatBurst = Integer.getInteger("chat.ratelimit.chat.burst", 10);
+        this.commandRate = Double.parseDouble(System.getProperty("chat.ratelimit.command.rate", "1"));
+        this.commandBurst = Integer.getInteger("chat.ratelimit.command.burst", 5);
+        this.rateLimitAddressFactor = Integer.getInteger("chat.ratelimit.address.factor", 20);
+
+        this.metricsEnabled = Boolean.parseBoolean(System.getProperty("chat.metrics.enabled", "true"));
+
+        this.logQueueCapacity = Integer.getInteger("chat.log.queue", 8192);
+        this.logSampleRate = Double.parseDouble(System.getProperty("chat.log.sample.rate", "20"));
+        String audit = System.getProperty("chat.audit.file");
+        this.auditFile = audit == null || audit.trim().isEmpty() ? null : Paths.get(audit.trim());
+        this.auditQueueCapacity = Integer.getInteger("chat.audit.queue", 65536);
+
+        this.heartbeatIntervalMillis = Long.getLong("chat.heartbeat.interval.ms", 30_000);
+        this.heartbeatTimeoutMillis = Long.getLong("chat.heartbeat.timeout.ms", 10_000);
+        this.heartbeatTickMillis = Long.getLong("chat.heartbeat.tick.ms", 500);
+
+        this.resumeGraceMillis = Long.getLong("chat.resume.grace.ms", 60_000);
+        this.resumeBufferEntries = Integer.getInteger("chat.resume.buffer.entries", 256);
+        this.resumeBufferBytes = Long.getLong("chat.resume.buffer.bytes", 512L * 1024);
+
+        this.fanoutShards = Integer.getInteger("chat.fanout.shards", 0);
+
+        this.admissionMaxConnections = Integer.getInteger("chat.admission.max.connections", 0);
+        this.admissionMaxPerAddress = Integer.getInteger("chat.admission.max.per.address", 0);
+        this.admissionRate = Double.parseDouble(System.getProperty("chat.admission.rate", "0"));
+        this.admissionBurst = Integer.getInteger("chat.admission.burst", 100);
+        this.admissionShedBroadcastMillis = Double.parseDouble(
+                System.getProperty("chat.admission.shed.broadcast.ms", "0"));
+        this.admissionShedQueuedFrames = Long.getLong("chat.admission.shed.queued.frames", 0);
+        this.admissionConnectTimeoutMillis = Long.getLong("chat.admission.connect.timeout.ms", 30_000);
+    }
+
+    public static ChatConfig get() {
+        return INSTANCE;
+    }
+
+    /** 每个会话出站队列最多容纳的帧数 */
+    public int getOutboxCapacity() {
+        return outboxCapacity;
+    }
+
+    /** 出站队列溢出时的默认策略 */
+    public OverflowPolicy getOutboxOverflowPolicy() {
+        return outboxOverflowPolicy;
+    }
+
+    /** 在线状态增量的合并窗口（毫秒），0表示每次变化立即发送 */
+    public long getPresenceWindowMillis() {
+        return presenceWindowMillis;
+    }
+
+    /** 消息历史目录，未设置时不在磁盘上保存历史 */
+    public Path getHistoryDir() {
+        return historyDir;
+    }
+
+    /** 进入房间时回放的历史消息条数 */
+    public int getHistoryReplayCount() {
+        return historyReplayCount;
+    }
+
+    /** 等待写盘的记录上限，超过后新记录被丢弃 */
+    public int getHistoryQueueCapacity() {
+        return historyQueueCapacity;
+    }
+
+    /** 单个日志分段的最大字节数 */
+    public long getHistorySegmentBytes() {
+        return historySegmentBytes;
+    }
+
+    /** 日志总大小上限，0表示不限制 */
+    public long getHistoryRetentionBytes() {
+        return historyRetentionBytes;
+    }
+
+    /** 日志分段的保留时间（毫秒），0表示不限制 */
+    public long getHistoryRetentionMillis() {
+        return historyRetentionMillis;
+    }
+
+    /** 每个房间在内存中保留的最近消息条数 */
+    public int getBacklogEntries() {
+        return backlogEntries;
+    }
+
+    /** 每个房间在内存中保留的最近消息字节数上限 */
+    public long getBacklogBytes() {
+        return backlogBytes;
+    }
+
+    /** 房间没有新消息多久后回收其内存缓冲（毫秒），0表示不回收 */
+    public long getBacklogIdleMillis() {
+        return backlogIdleMillis;
+    }
+
+    /** 是否启用消息加密（密钥交换与入站解密） */
+    public boolean isEncryptionEnabled() {
+        return encryptionEnabled;
+    }
+
+    /** RSA私钥文件（PKCS#8 PEM），存在时直接加载，不存在时生成后写入；未配置时每次启动在后台生成 */
+    public Path getEncryptionKeyFile() {
+        return encryptionKeyFile;
+    }
+
+    /** 执行CPU密集型管道阶段（SERIAL模式下为全部入站消息）的工作线程数 */
+    public int getPipelineWorkers() {
+        return pipelineWorkers;
+    }
+
+    /** 入站消息在I/O线程上处理，还是交给每会话串行执行器（平台线程池或虚拟线程） */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /** 聊天消息的最大字符数，0表示不限制 */
+    public int getMaxMessageLength() {
+        return maxMessageLength;
+    }
+
+    /** 客户端请求时是否协商permessage-deflate压缩 */
+    public boolean isDeflateEnabled() {
+        return deflateEnabled;
+    }
+
+    /** 小于该字节数的消息不压缩 */
+    public int getDeflateMinBytes() {
+        return deflateMinBytes;
+    }
+
+    /** 本节点集群总线地址 host:port，未配置时单节点运行 */
+    public String getClusterNode() {
+        return clusterNode;
+    }
+
+    /** 其他节点的集群总线地址，各节点配置的节点集合须一致 */
+    public List<String> getClusterPeers() {
+        return clusterPeers;
+    }
+
+    /** 每个对端的发送队列容量 */
+    public int getClusterQueueCapacity() {
+        return clusterQueueCapacity;
+    }
+
+    /** 向归属节点申请用户名的超时时间 */
+    public long getClusterTimeoutMillis() {
+        return clusterTimeoutMillis;
+    }
+
+    /** 每个连接每秒允许的聊天消息数，0表示不限制 */
+    public double getChatRate() {
+        return chatRate;
+    }
+
+    /** 聊天消息在空闲后允许连续发送的条数 */
+    public int getChatBurst() {
+        return chatBurst;
+    }
+
+    /** 每个连接每秒允许的命令数，0表示不限制 */
+    public double getCommandRate() {
+        return commandRate;
+    }
+
+    /** 命令在空闲后允许连续发送的条数 */
+    public int getCommandBurst() {
+        return commandBurst;
+    }
+
+    /** 同一来源地址的所有连接合计的额度是单个连接的多少倍，0表示不按地址限流 */
+    public int getRateLimitAddressFactor() {
+        return rateLimitAddressFactor;
+    }
+
+    /** 是否提供 /metrics 端点并注册JMX MBean */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /** 异步日志队列容量，满时新日志被丢弃 */
+    public int getLogQueueCapacity() {
+        return logQueueCapacity;
+    }
+
+    /** 聊天、命令等高频日志每类每秒最多输出的行数，0表示不采样 */
+    public double getLogSampleRate() {
+        return logSampleRate;
+    }
+
+    /** 审计日志文件，未设置时不记录 */
+    public Path getAuditFile() {
+        return auditFile;
+    }
+
+    /** 等待写入审计日志的记录上限 */
+    public int getAuditQueueCapacity() {
+        return auditQueueCapacity;
+    }
+
+    /** 连接空闲多久后发送心跳ping（毫秒），0表示关闭心跳 */
+    public long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    /** 发送ping后等待任何入站帧的时间（毫秒），超时的连接被驱逐 */
+    public long getHeartbeatTimeoutMillis() {
+        return heartbeatTimeoutMillis;
+    }
+
+    /** 心跳时间轮的刻度（毫秒），也是超时判定的精度 */
+    public long getHeartbeatTickMillis() {
+        return heartbeatTickMillis;
+    }
+
+    /** 连接异常断开后保留用户名和房间、等待凭令牌恢复的时间（毫秒），0表示关闭 */
+    public long getResumeGraceMillis() {
+        return resumeGraceMillis;
+    }
+
+    /** 每个房间为断线重连保留的最近广播条数 */
+    public int getResumeBufferEntries() {
+        return resumeBufferEntries;
+    }
+
+    /** 每个房间为断线重连保留的最近广播字节数上限 */
+    public long getResumeBufferBytes() {
+        return resumeBufferBytes;
+    }
+
+    /** 并行投递的分片（线程）数，0表示在调用线程上投递；有上万人的大房间时可设为CPU核数 */
+    public int getFanoutShards() {
+        return fanoutShards;
+    }
+
+    /** 全局连接上限，超出时以503拒绝升级，0表示不限制 */
+    public int getAdmissionMaxConnections() {
+        return admissionMaxConnections;
+    }
+
+    /** 同一来源地址的连接上限，超出时以429拒绝升级，0表示不限制 */
+    public int getAdmissionMaxPerAddress() {
+        return admissionMaxPerAddress;
+    }
+
+    /** 全局每秒接受的新连接数，0表示不限制 */
+    public double getAdmissionRate() {
+        return admissionRate;
+    }
+
+    public int getAdmissionBurst() {
+        return admissionBurst;
+    }
+
+    /** 最近一秒的平均广播耗时超过该值（毫秒）时拒绝新连接，0表示关闭 */
+    public double getAdmissionShedBroadcastMillis() {
+        return admissionShedBroadcastMillis;
+    }
+
+    /** 所有出站队列中等待写出的帧超过该值时拒绝新连接，0表示关闭 */
+    public long getAdmissionShedQueuedFrames() {
+        return admissionShedQueuedFrames;
+    }
+
+    /** 准入后超过该时间（毫秒）仍未建立连接的名额视为升级失败并归还 */
+    public long getAdmissionConnectTimeoutMillis() {
+        return admissionConnectTimeoutMillis;
+    }
+}
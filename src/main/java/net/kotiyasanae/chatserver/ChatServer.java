@@ -1,16 +1,31 @@
 // server/src/main/java/net/kotiyasanae/chatserver/ChatServer.java
 package net.kotiyasanae.chatserver;
 
+import net.kotiyasanae.chatserver.codec.WireProtocol;
+import net.kotiyasanae.chatserver.metrics.ChatMetrics;
+import net.kotiyasanae.chatserver.metrics.MetricsMBean;
+import net.kotiyasanae.chatserver.metrics.MetricsServlet;
+import net.kotiyasanae.chatserver.ratelimit.AdmissionControl;
+import net.kotiyasanae.chatserver.service.ChatService;
 import net.kotiyasanae.chatserver.websocket.ChatWebSocketHandler;
+import net.kotiyasanae.chatserver.websocket.ThresholdDeflateExtension;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
 import org.eclipse.jetty.websocket.server.WebSocketUpgradeFilter;
+import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
 public class ChatServer {
     private static final Logger logger = LoggerFactory.getLogger(ChatServer.class);
 
@@ -36,16 +51,42 @@ public class ChatServer {
         //String webDir = this.getClass().getClassLoader().getResource("webapp").toExternalForm();
         //context.setResourceBase(webDir);
         context.addServlet(new ServletHolder("default", new org.eclipse.jetty.servlet.DefaultServlet()), "/");
+        // Prometheus抓取端点
+        if (ChatConfig.get().isMetricsEnabled()) {
+            context.addServlet(new ServletHolder("metrics", new MetricsServlet(ChatMetrics.registry())), "/metrics");
+        }
 
         server.setHandler(context);
 
         // 配置WebSocket - 修正后的代码
         WebSocketUpgradeFilter wsFilter = WebSocketUpgradeFilter.configureContext(context);
 
-        // 使用WebSocketCreator
-        WebSocketCreator creator = (req, resp) -> new ChatWebSocketHandler();
+        configureDeflate(wsFilter.getFactory());
+
+        // 使用WebSocketCreator，先做准入控制，客户端声明二进制子协议时接受之，否则使用JSON文本帧
+        AdmissionControl admission = ChatService.getAdmission();
+        WebSocketCreator creator = (req, resp) -> {
+            InetSocketAddress remote = req.getRemoteSocketAddress();
+            AdmissionControl.Ticket ticket = admission.tryAdmit(remote == null ? null : remote.getAddress());
+            if (!ticket.isAdmitted()) {
+                reject(resp, ticket.getDecision());
+                return null;
+            }
+            if (req.getSubProtocols().contains(WireProtocol.BINARY_SUBPROTOCOL)) {
+                resp.setAcceptedSubProtocol(WireProtocol.BINARY_SUBPROTOCOL);
+            }
+            return new ChatWebSocketHandler(ticket);
+        };
         wsFilter.addMapping("/chat", creator);
 
+        ChatService.start();
+        if (ChatConfig.get().isMetricsEnabled()) {
+            try {
+                MetricsMBean.register(ChatMetrics.registry(), "net.kotiyasanae.chatserver:type=Metrics");
+            } catch (JMException e) {
+                logger.warn("JMX registration failed", e);
+            }
+        }
         server.start();
 
         logger.info("Chat server started on port: {}", port);
@@ -61,9 +102,40 @@ public class ChatServer {
         }));
     }
 
+    /**
+     * permessage-deflate: 替换为带阈值和统计的实现，或按配置关闭。
+     * Jetty 9.4 中扩展注册只能通过已废弃的ExtensionFactory完成（WebSocketPolicy不能替换扩展实现，
+     * 替代接口要到Jetty 10才有），废弃警告只在这里抑制
+     */
+    @SuppressWarnings("deprecation")
+    private static void configureDeflate(WebSocketServletFactory factory) {
+        ExtensionFactory extensions = factory.getExtensionFactory();
+        extensions.unregister("permessage-deflate");
+        if (ChatConfig.get().isDeflateEnabled()) {
+            extensions.register("permessage-deflate", ThresholdDeflateExtension.class);
+        }
+    }
+
+    /**
+     * 拒绝升级请求：同一地址连接过多返回429，其余（过载、全局上限、速率）返回503并建议稍后重试
+     */
+    private static void reject(ServletUpgradeResponse resp, AdmissionControl.Decision decision) {
+        try {
+            if (decision == AdmissionControl.Decision.ADDRESS_LIMIT) {
+                resp.sendError(429, "Too many connections from this address");
+            } else {
+                resp.setHeader("Retry-After", "1");
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy");
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to reject upgrade", e);
+        }
+    }
+
     public void stop() throws Exception {
         if (server != null) {
             server.stop();
+            ChatService.shutdown();
             logger.info("Chat server stopped");
         }
     }
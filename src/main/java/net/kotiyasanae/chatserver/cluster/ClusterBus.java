@@ -0,0 +1,44 @@
+package net.kotiyasanae.chatserver.cluster;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 集群总线：在节点之间传递广播、私聊和在线状态
+ * <p>
+ * 发送均为异步，只入队不等待网络；对端未连接时消息被丢弃，重连后由全量同步恢复在线状态
+ */
+public interface ClusterBus {
+
+    /**
+     * 本节点ID
+     */
+    String getNodeId();
+
+    /**
+     * 集群全部节点ID（含本节点，已排序），各节点配置一致，用于确定用户名的归属节点
+     */
+    List<String> getMembers();
+
+    void start(ClusterListener listener) throws IOException;
+
+    /**
+     * 发往所有已连接的对端
+     */
+    void publish(ClusterMessage message);
+
+    /**
+     * 发往指定节点
+     * @return 节点未连接或队列已满返回false
+     */
+    boolean send(String nodeId, ClusterMessage message);
+
+    boolean isConnected(String nodeId);
+
+    /**
+     * 因对端未连接或队列已满而丢弃的消息数
+     */
+    long getDroppedCount();
+
+    void close();
+}
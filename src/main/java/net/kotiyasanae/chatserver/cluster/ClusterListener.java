@@ -0,0 +1,23 @@
+package net.kotiyasanae.chatserver.cluster;
+
+/**
+ * 集群总线回调，同一对端的消息按发送顺序在同一线程中回调
+ */
+public interface ClusterListener {
+
+    /**
+     * 收到对端节点的消息
+     */
+    void onMessage(String nodeId, ClusterMessage message);
+
+    /**
+     * 到对端的连接建立后、发送排队消息之前调用
+     * @return 需要最先发送的消息（例如本节点在线用户的全量同步），没有返回null
+     */
+    ClusterMessage onPeerConnected(String nodeId);
+
+    /**
+     * 对端节点断开或心跳超时，应丢弃该节点的在线用户和用户名占用
+     */
+    void onPeerDown(String nodeId);
+}
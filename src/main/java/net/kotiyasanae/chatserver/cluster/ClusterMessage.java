@@ -0,0 +1,153 @@
+package net.kotiyasanae.chatserver.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 节点间传递的消息，发送节点由连接握手确定，不在消息中携带
+ * <p>
+ * 编码: [类型][id][标志][键][负载长度][负载]，外层由传输实现加上长度前缀
+ */
+public final class ClusterMessage {
+    private static final byte[] EMPTY = new byte[0];
+
+    public enum Type {
+        /** 握手，键为发送节点ID */
+        HELLO,
+        /** 心跳 */
+        PING,
+        /** 房间广播，键为房间，负载为JSON帧，标志表示是否记入历史 */
+        BROADCAST,
+        /** 私聊，键为目标用户名，负载为发给目标的JSON帧 */
+        PRIVATE,
+        /** 用户上线，键为用户名 */
+        PRESENCE_JOIN,
+        /** 用户下线，键为用户名 */
+        PRESENCE_LEAVE,
+        /** 发送节点全部在线用户，负载为换行分隔的用户名，连接建立后首先发送 */
+        PRESENCE_SYNC,
+        /** 向归属节点申请用户名，id为请求号 */
+        CLAIM,
+        /** 申请结果，id为请求号，键为用户名，标志表示是否成功 */
+        CLAIM_REPLY,
+        /** 释放用户名 */
+        RELEASE
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    private final Type type;
+    private final long id;
+    private final boolean flag;
+    private final String key;
+    private final byte[] payload;
+
+    public ClusterMessage(Type type, long id, boolean flag, String key, byte[] payload) {
+        this.type = type;
+        this.id = id;
+        this.flag = flag;
+        this.key = key != null ? key : "";
+        this.payload = payload != null ? payload : EMPTY;
+    }
+
+    public static ClusterMessage of(Type type, String key) {
+        return new ClusterMessage(type, 0, false, key, null);
+    }
+
+    public static ClusterMessage broadcast(String room, byte[] frame, boolean record) {
+        return new ClusterMessage(Type.BROADCAST, 0, record, room, frame);
+    }
+
+    public static ClusterMessage privateMessage(String target, byte[] frame) {
+        return new ClusterMessage(Type.PRIVATE, 0, false, target, frame);
+    }
+
+    public static ClusterMessage sync(Collection<String> usernames) {
+        return new ClusterMessage(Type.PRESENCE_SYNC, 0, false, null,
+                String.join("\n", usernames).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ClusterMessage claim(long requestId, String username) {
+        return new ClusterMessage(Type.CLAIM, requestId, false, username, null);
+    }
+
+    public static ClusterMessage claimReply(long requestId, String username, boolean granted) {
+        return new ClusterMessage(Type.CLAIM_REPLY, requestId, granted, username, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean getFlag() {
+        return flag;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * PRESENCE_SYNC 负载中的用户名列表
+     */
+    public List<String> usernames() {
+        List<String> names = new ArrayList<>();
+        if (payload.length > 0) {
+            for (String name : new String(payload, StandardCharsets.UTF_8).split("\n")) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(32 + key.length() * 3 + payload.length);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeByte(type.ordinal());
+            out.writeLong(id);
+            out.writeBoolean(flag);
+            out.writeUTF(key);
+            out.writeInt(payload.length);
+            out.write(payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // 写内存不会失败
+        }
+        return buffer.toByteArray();
+    }
+
+    public static ClusterMessage decode(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= TYPES.length) {
+            throw new IOException("Unknown cluster message type " + ordinal);
+        }
+        long id = in.readLong();
+        boolean flag = in.readBoolean();
+        String key = in.readUTF();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid payload length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new ClusterMessage(TYPES[ordinal], id, flag, key, payload);
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + key + ")";
+    }
+}
@@ -0,0 +1,52 @@
+package net.kotiyasanae.chatserver.cluster;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 单节点部署时使用的空总线，没有对端，发送不做任何事
+ */
+public class LocalClusterBus implements ClusterBus {
+    private final String nodeId;
+
+    public LocalClusterBus(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<String> getMembers() {
+        return Collections.singletonList(nodeId);
+    }
+
+    @Override
+    public void start(ClusterListener listener) {
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+    }
+
+    @Override
+    public boolean send(String nodeId, ClusterMessage message) {
+        return false;
+    }
+
+    @Override
+    public boolean isConnected(String nodeId) {
+        return this.nodeId.equals(nodeId);
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
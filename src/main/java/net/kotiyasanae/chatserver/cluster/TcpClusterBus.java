@@ -0,0 +1,370 @@
+package net.kotiyasanae.chatserver.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于TCP的点对点集群总线，节点列表静态配置，节点ID即总线监听地址 host:port
+ * <p>
+ * 每个节点主动连接所有对端，只在自己发起的连接上写、在对端发起的连接上读，
+ * 因此每对节点之间有两条单向连接。每个对端有一个有界发送队列和一个写线程，
+ * 广播只编码一次后放入各队列；空闲时发送心跳，读超时视为对端下线
+ */
+public class TcpClusterBus implements ClusterBus {
+    private static final Logger logger = LoggerFactory.getLogger(TcpClusterBus.class);
+
+    private static final int PING_INTERVAL_MS = 1000;
+    private static final int READ_TIMEOUT_MS = 5000;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    private static final byte[] PING = ClusterMessage.of(ClusterMessage.Type.PING, null).encode();
+
+    private final String nodeId;
+    private final List<String> members;
+    private final Map<String, PeerLink> links = new LinkedHashMap<>();
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+    private final AtomicInteger readerIndex = new AtomicInteger();
+
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+    private ClusterListener listener;
+
+    /**
+     * @param nodeId 本节点总线地址 host:port
+     * @param peers 对端节点总线地址
+     * @param queueCapacity 每个对端的发送队列容量，队列满时丢弃新消息
+     */
+    public TcpClusterBus(String nodeId, List<String> peers, int queueCapacity) {
+        this.nodeId = nodeId;
+        List<String> all = new ArrayList<>(peers);
+        all.remove(nodeId);
+        for (String peer : all) {
+            links.put(peer, new PeerLink(peer, queueCapacity));
+        }
+        all.add(nodeId);
+        Collections.sort(all);
+        this.members = Collections.unmodifiableList(all);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<String> getMembers() {
+        return members;
+    }
+
+    @Override
+    public void start(ClusterListener listener) throws IOException {
+        this.listener = listener;
+        running = true;
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(parseAddress(nodeId));
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        for (PeerLink link : links.values()) {
+            link.start();
+        }
+        logger.info("Cluster node {} listening, peers: {}", nodeId, links.keySet());
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        if (links.isEmpty()) {
+            return;
+        }
+        byte[] frame = message.encode();
+        for (PeerLink link : links.values()) {
+            link.offer(frame);
+        }
+    }
+
+    @Override
+    public boolean send(String nodeId, ClusterMessage message) {
+        PeerLink link = links.get(nodeId);
+        return link != null && link.offer(message.encode());
+    }
+
+    @Override
+    public boolean isConnected(String nodeId) {
+        if (this.nodeId.equals(nodeId)) {
+            return true;
+        }
+        PeerLink link = links.get(nodeId);
+        return link != null && link.connected;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (PeerLink link : links.values()) {
+            dropped += link.dropped.get();
+        }
+        return dropped;
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        closeQuietly(serverSocket);
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+        for (Socket socket : inbound.values()) {
+            closeQuietly(socket);
+        }
+        logger.info("Cluster node {} stopped, {} messages dropped", nodeId, getDroppedCount());
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> readLoop(socket),
+                        "cluster-reader-" + readerIndex.incrementAndGet());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Cluster accept failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取对端发起的连接，第一条消息必须是HELLO
+     */
+    private void readLoop(Socket socket) {
+        String peer = null;
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            ClusterMessage hello = readFrame(in);
+            if (hello.getType() != ClusterMessage.Type.HELLO || !links.containsKey(hello.getKey())) {
+                logger.warn("Rejected cluster connection from {}: {}", socket.getRemoteSocketAddress(), hello);
+                return;
+            }
+            peer = hello.getKey();
+            Socket previous = inbound.put(peer, socket);
+            if (previous != null) {
+                closeQuietly(previous); // 对端重连，旧连接作废
+            }
+            logger.info("Cluster peer {} connected", peer);
+            PeerLink link = links.get(peer);
+            if (!link.connected) {
+                link.wake(); // 对端刚启动，不必等退避时间到期
+            }
+
+            while (running) {
+                ClusterMessage message = readFrame(in);
+                if (message.getType() == ClusterMessage.Type.PING) {
+                    continue;
+                }
+                try {
+                    listener.onMessage(peer, message);
+                } catch (RuntimeException e) {
+                    logger.error("Cluster message {} from {} failed", message, peer, e);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            logger.warn("Cluster peer {} heartbeat timeout", peer);
+        } catch (IOException e) {
+            if (running && peer != null) {
+                logger.info("Cluster peer {} disconnected: {}", peer, e.toString());
+            }
+        } finally {
+            closeQuietly(socket);
+            // 只有当前连接断开才算下线，被新连接替换的旧连接不算
+            if (peer != null && inbound.remove(peer, socket) && running) {
+                listener.onPeerDown(peer);
+            }
+        }
+    }
+
+    private static ClusterMessage readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid cluster frame length " + length);
+        }
+        return ClusterMessage.decode(in);
+    }
+
+    private static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+    }
+
+    static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Cluster address must be host:port: " + address);
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 到一个对端的发送连接，断开后按退避时间重连
+     */
+    private final class PeerLink {
+        private final String peer;
+        private final BlockingQueue<byte[]> queue;
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean connected;
+        private volatile Socket socket;
+        private Thread writer;
+        private boolean woken; // 由this保护
+
+        PeerLink(String peer, int capacity) {
+            this.peer = peer;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        }
+
+        void start() {
+            writer = new Thread(this::run, "cluster-link-" + peer);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        boolean offer(byte[] frame) {
+            if (connected && queue.offer(frame)) {
+                return true;
+            }
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        private void run() {
+            long backoff = 100;
+            boolean warned = false;
+            while (running) {
+                Socket s = new Socket();
+                try {
+                    s.setTcpNoDelay(true);
+                    s.connect(parseAddress(peer), CONNECT_TIMEOUT_MS);
+                    socket = s;
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                    writeFrame(out, ClusterMessage.of(ClusterMessage.Type.HELLO, nodeId).encode());
+
+                    // 先标记已连接再生成全量同步，之后入队的增量排在同步之后，不会丢失
+                    queue.clear();
+                    connected = true;
+                    backoff = 100;
+                    warned = false;
+                    ClusterMessage first = listener.onPeerConnected(peer);
+                    if (first != null) {
+                        writeFrame(out, first.encode());
+                    }
+                    out.flush();
+                    drain(out);
+                } catch (IOException e) {
+                    if (running && (connected || !warned)) {
+                        logger.warn("Cluster link to {} failed: {}", peer, e.toString());
+                        warned = true;
+                    }
+                } finally {
+                    connected = false;
+                    closeQuietly(s);
+                }
+
+                if (running) {
+                    try {
+                        pause(backoff);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    backoff = Math.min(backoff * 2, 5000);
+                }
+            }
+        }
+
+        synchronized void wake() {
+            woken = true;
+            notifyAll();
+        }
+
+        private synchronized void pause(long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (!woken && running && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            woken = false;
+        }
+
+        /**
+         * 批量写出队列中的消息，写完一批才flush；空闲时发送心跳
+         */
+        private void drain(DataOutputStream out) throws IOException {
+            List<byte[]> batch = new ArrayList<>();
+            while (running) {
+                byte[] frame;
+                try {
+                    frame = queue.poll(PING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (frame == null) {
+                    writeFrame(out, PING);
+                } else {
+                    writeFrame(out, frame);
+                    queue.drainTo(batch, 256);
+                    for (byte[] next : batch) {
+                        writeFrame(out, next);
+                    }
+                    batch.clear();
+                }
+                out.flush();
+            }
+        }
+
+        void close() {
+            connected = false;
+            closeQuietly(socket);
+            if (writer != null) {
+                writer.interrupt();
+            }
+        }
+    }
+}
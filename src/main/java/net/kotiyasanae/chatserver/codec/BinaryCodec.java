@@ -0,0 +1,282 @@
+package net.kotiyasanae.chatserver.codec;
+
+import net.kotiyasanae.chatserver.model.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 紧凑的二进制消息格式，用于协商了 {@link WireProtocol#BINARY_SUBPROTOCOL} 的连接
+ * <pre>
+ * [flags:1][type:1][time:varint][seq][sender][room][content]
+ * type     MessageType的序号，0xFF表示null
+ * time     毫秒时间戳
+ * seq      flags & SEQ: varint，房间广播的序号
+ * sender   flags & SENDER_TEXT: varint长度 + UTF-8
+ *          flags & SENDER_REF:  varint ID，引用此前在该连接上定义过的发送者
+ *          flags & SENDER_DEF:  varint ID + varint长度 + UTF-8，定义并使用该ID
+ * room     flags & ROOM: varint长度 + UTF-8
+ * content  flags & CONTENT: varint长度 + UTF-8
+ * </pre>
+ * 客户端发送时使用SENDER_TEXT；服务器发送时对发送者使用ID，每个连接第一次遇到某个ID时收到SENDER_DEF。
+ */
+public final class BinaryCodec {
+    public static final int CONTENT = 1;
+    public static final int ROOM = 1 << 1;
+    public static final int SENDER_TEXT = 1 << 2;
+    public static final int SENDER_REF = 1 << 3;
+    public static final int SENDER_DEF = 1 << 4;
+    public static final int SEQ = 1 << 5;
+
+    private static final int NULL_TYPE = 0xFF;
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * 发送者以文本内联的编码
+     */
+    public static byte[] encode(Message message) {
+        return encode(message, 0, false);
+    }
+
+    /**
+     * @param senderId 大于0时以ID表示发送者
+     * @param define   是否同时携带该ID的定义
+     */
+    static byte[] encode(Message message, int senderId, boolean define) {
+        byte[] sender = message.getSender() == null ? null : utf8(message.getSender());
+        byte[] room = message.getRoom() == null ? null : utf8(message.getRoom());
+        byte[] content = message.getContent() == null ? null : utf8(message.getContent());
+
+        int flags = 0;
+        if (content != null) {
+            flags |= CONTENT;
+        }
+        if (room != null) {
+            flags |= ROOM;
+        }
+        if (sender != null) {
+            flags |= senderId <= 0 ? SENDER_TEXT : define ? SENDER_DEF : SENDER_REF;
+        }
+        if (message.getSeq() > 0) {
+            flags |= SEQ;
+        }
+
+        Writer out = new Writer(16 + length(sender) + length(room) + length(content));
+        out.write(flags);
+        out.write(message.getType() == null ? NULL_TYPE : message.getType().ordinal());
+        out.writeVarint(Math.max(0, message.getTime()));
+        if ((flags & SEQ) != 0) {
+            out.writeVarint(message.getSeq());
+        }
+        if ((flags & (SENDER_REF | SENDER_DEF)) != 0) {
+            out.writeVarint(senderId);
+        }
+        if ((flags & (SENDER_TEXT | SENDER_DEF)) != 0) {
+            out.writeBytes(sender);
+        }
+        if (room != null) {
+            out.writeBytes(room);
+        }
+        if (content != null) {
+            out.writeBytes(content);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 解析客户端发来的二进制消息，客户端不能引用发送者ID
+     */
+    public static Message decode(byte[] data, int offset, int length) {
+        return decode(data, offset, length, null);
+    }
+
+    /**
+     * @param senders 该连接已知的发送者定义，收到定义时写入；为null时不接受ID
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static Message decode(byte[] data, int offset, int length, Map<Integer, String> senders) {
+        Reader in = new Reader(data, offset, length);
+        int flags = in.read();
+        int type = in.read();
+        Message message = new Message();
+        if (type != NULL_TYPE) {
+            if (type >= TYPES.length) {
+                throw new IllegalArgumentException("Unknown message type: " + type);
+            }
+            message.setType(TYPES[type]);
+        }
+        message.setTime(in.readVarint());
+        if ((flags & SEQ) != 0) {
+            message.setSeq(in.readVarint());
+        }
+
+        if ((flags & (SENDER_REF | SENDER_DEF)) != 0) {
+            if (senders == null) {
+                throw new IllegalArgumentException("Sender ID not allowed");
+            }
+            int id = (int) in.readVarint();
+            if ((flags & SENDER_DEF) != 0) {
+                String name = in.readString();
+                senders.put(id, name);
+                message.setSender(name);
+            } else {
+                String name = senders.get(id);
+                if (name == null) {
+                    throw new IllegalArgumentException("Undefined sender ID: " + id);
+                }
+                message.setSender(name);
+            }
+        } else if ((flags & SENDER_TEXT) != 0) {
+            message.setSender(in.readString());
+        }
+        if ((flags & ROOM) != 0) {
+            message.setRoom(in.readString());
+        }
+        if ((flags & CONTENT) != 0) {
+            message.setContent(in.readString());
+        }
+        return message;
+    }
+
+    /**
+     * 不创建字符串，跳过头部和发送者、房间字段，判断内容去掉前导空白后是否以'.'开头，用于限流前区分命令
+     * <p>
+     * 格式错误时返回false，交给后面的解码报错
+     */
+    public static boolean isCommand(byte[] data, int offset, int length) {
+        try {
+            Reader in = new Reader(data, offset, length);
+            int flags = in.read();
+            if ((flags & CONTENT) == 0) {
+                return false;
+            }
+            in.read();
+            in.readVarint();
+            if ((flags & SEQ) != 0) {
+                in.readVarint();
+            }
+            if ((flags & (SENDER_REF | SENDER_DEF)) != 0) {
+                in.readVarint();
+                if ((flags & SENDER_DEF) != 0) {
+                    in.skipString();
+                }
+            } else if ((flags & SENDER_TEXT) != 0) {
+                in.skipString();
+            }
+            if ((flags & ROOM) != 0) {
+                in.skipString();
+            }
+            long remaining = in.readVarint();
+            while (remaining-- > 0) {
+                int b = in.read();
+                if (b > ' ') {
+                    return b == '.';
+                }
+            }
+            return false;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length + 5;
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int size;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (size == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[size++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            if (size + bytes.length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + bytes.length));
+            }
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return size == buf.length ? buf : Arrays.copyOf(buf, size);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] data, int offset, int length) {
+            if (offset < 0 || length < 0 || offset + length > data.length) {
+                throw new IllegalArgumentException("Invalid range");
+            }
+            this.data = data;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        int read() {
+            if (pos >= end) {
+                throw new IllegalArgumentException("Truncated message");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        void skipString() {
+            long length = readVarint();
+            if (length > end - pos) {
+                throw new IllegalArgumentException("Truncated message");
+            }
+            pos += (int) length;
+        }
+
+        String readString() {
+            long length = readVarint();
+            if (length > end - pos) {
+                throw new IllegalArgumentException("Truncated message");
+            }
+            String s = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return s;
+        }
+    }
+}
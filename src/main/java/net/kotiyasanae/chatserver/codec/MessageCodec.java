@@ -0,0 +1,174 @@
+package net.kotiyasanae.chatserver.codec;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import net.kotiyasanae.chatserver.model.Message;
+import net.kotiyasanae.chatserver.model.Timestamps;
+
+import java.io.IOException;
+
+/**
+ * 消息的JSON编解码，直接使用Jackson流式API，不经过databind反射
+ * <p>
+ * 线上格式与之前相同: {"type":..,"content":..,"sender":..,"timestamp":"yyyy-MM-dd HH:mm:ss","room":..}，
+ * 房间广播另有 "seq" 字段
+ */
+public final class MessageCodec {
+    private static final JsonFactory factory = new JsonFactory();
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    private MessageCodec() {
+    }
+
+    /**
+     * 将消息编码为可共享的出站帧
+     */
+    public static OutboundFrame encode(Message message) throws JsonProcessingException {
+        ByteArrayBuilder buffer = new ByteArrayBuilder(factory._getBufferRecycler(), 256);
+        try (JsonGenerator gen = factory.createGenerator(buffer, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            Message.MessageType type = message.getType();
+            if (type == null) {
+                gen.writeNullField("type");
+            } else {
+                gen.writeStringField("type", type.name());
+            }
+            gen.writeStringField("content", message.getContent());
+            gen.writeStringField("sender", message.getSender());
+            gen.writeStringField("timestamp", Timestamps.format(message.getTime()));
+            gen.writeStringField("room", message.getRoom());
+            if (message.getSeq() > 0) {
+                gen.writeNumberField("seq", message.getSeq());
+            }
+            gen.writeEndObject();
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonGenerationException(e, null);
+        }
+        byte[] bytes = buffer.toByteArray();
+        buffer.release();
+        return new OutboundFrame(bytes, message);
+    }
+
+    /**
+     * 不解析JSON，只在原文中找到content字段，判断其去掉前导空白后是否以'.'开头，用于限流前区分命令
+     * <p>
+     * 内容以转义字符开头时无法直接判断，按命令计算（更严格的额度）
+     */
+    public static boolean isCommand(String json) {
+        int from = 0;
+        while (true) {
+            int index = json.indexOf("\"content\"", from);
+            if (index < 0) {
+                return false;
+            }
+            int i = skipWhitespace(json, index + 9);
+            if (i < json.length() && json.charAt(i) == ':') {
+                i = skipWhitespace(json, i + 1);
+                if (i < json.length() && json.charAt(i) == '"') {
+                    i = skipWhitespace(json, i + 1);
+                    if (i < json.length()) {
+                        char c = json.charAt(i);
+                        return c == '.' || c == '\\';
+                    }
+                }
+                return false;
+            }
+            from = index + 9;
+        }
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && s.charAt(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 解析客户端发来的JSON消息，未知字段被忽略
+     */
+    public static Message decode(String json) throws JsonProcessingException {
+        try (JsonParser parser = factory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected JSON object");
+            }
+            Message message = new Message();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "type":
+                        message.setType(token == JsonToken.VALUE_NULL ? null : parseType(parser));
+                        break;
+                    case "content":
+                        message.setContent(scalar(parser, token));
+                        break;
+                    case "sender":
+                        message.setSender(scalar(parser, token));
+                        break;
+                    case "room":
+                        message.setRoom(scalar(parser, token));
+                        break;
+                    case "seq":
+                        if (token == JsonToken.VALUE_NUMBER_INT) {
+                            message.setSeq(parser.getLongValue());
+                        }
+                        break;
+                    case "timestamp":
+                        if (token == JsonToken.VALUE_NUMBER_INT) {
+                            message.setTime(parser.getLongValue());
+                        } else {
+                            message.setTimestamp(scalar(parser, token));
+                        }
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT) {
+                throw new JsonParseException(parser, "Unexpected token " + parser.currentToken());
+            }
+            return message;
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonParseException(null, e.getMessage(), e);
+        }
+    }
+
+    private static Message.MessageType parseType(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            int ordinal = parser.getIntValue();
+            if (ordinal >= 0 && ordinal < TYPES.length) {
+                return TYPES[ordinal];
+            }
+        } else if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            String name = parser.getText();
+            for (Message.MessageType type : TYPES) {
+                if (type.name().equals(name)) {
+                    return type;
+                }
+            }
+        }
+        throw new JsonParseException(parser, "Unknown message type: " + parser.getText());
+    }
+
+    private static String scalar(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isScalarValue()) {
+            return parser.getText();
+        }
+        throw new JsonParseException(parser, "Expected string for " + parser.getCurrentName());
+    }
+}
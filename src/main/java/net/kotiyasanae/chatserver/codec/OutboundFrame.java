@@ -0,0 +1,157 @@
+package net.kotiyasanae.chatserver.codec;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import net.kotiyasanae.chatserver.model.Message;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.frames.BinaryFrame;
+import org.eclipse.jetty.websocket.common.frames.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * 已编码好的出站帧
+ * 一条消息只编码一次为UTF-8 JSON，所有接收者共享同一份只读数据；
+ * 有二进制协议的接收者时再按需编码一次二进制形式，同样由所有二进制连接共享
+ */
+public final class OutboundFrame {
+    private final byte[] utf8;
+    private final String coalesceKey;
+    // 编码来源，编码后不应再修改；为null时二进制形式从JSON解析得到
+    private final Message message;
+    private volatile String text;
+    private volatile BinaryForm binary;
+
+    private static final class BinaryForm {
+        final int senderId;
+        final byte[] reference;
+        final byte[] definition;
+
+        BinaryForm(int senderId, byte[] reference, byte[] definition) {
+            this.senderId = senderId;
+            this.reference = reference;
+            this.definition = definition;
+        }
+    }
+
+    OutboundFrame(byte[] utf8, Message message) {
+        this(utf8, null, message);
+    }
+
+    private OutboundFrame(byte[] utf8, String coalesceKey, Message message) {
+        this.utf8 = utf8;
+        this.coalesceKey = coalesceKey;
+        this.message = message;
+    }
+
+    /**
+     * 用已编码好的UTF-8文本构造帧，调用方之后不能再修改该数组
+     */
+    public static OutboundFrame wrap(byte[] utf8) {
+        return new OutboundFrame(utf8, null);
+    }
+
+    /**
+     * 返回带合并键的同内容帧，出站队列溢出时新帧可替换队列中合并键相同的旧帧
+     */
+    public OutboundFrame coalescing(String key) {
+        return new OutboundFrame(utf8, key, message);
+    }
+
+    public String coalesceKey() {
+        return coalesceKey;
+    }
+
+    /**
+     * 返回负载的只读视图，每次调用都是独立的读位置
+     */
+    public ByteBuffer payload() {
+        return ByteBuffer.wrap(utf8).asReadOnlyBuffer();
+    }
+
+    /**
+     * 底层UTF-8数据，调用方不能修改
+     */
+    public byte[] bytes() {
+        return utf8;
+    }
+
+    /**
+     * 负载字节数
+     */
+    public int size() {
+        return utf8.length;
+    }
+
+    /**
+     * 文本形式，仅在无法直接发送帧时才会解码
+     */
+    public String text() {
+        String result = text;
+        if (result == null) {
+            result = new String(utf8, StandardCharsets.UTF_8);
+            text = result;
+        }
+        return result;
+    }
+
+    /**
+     * 异步发送该帧给指定会话，写完成或失败时回调
+     */
+    public void sendTo(Session session, WriteCallback callback) {
+        RemoteEndpoint remote = session.getRemote();
+        if (remote instanceof WebSocketRemoteEndpoint) {
+            // 直接下发共享负载，避免Jetty对每个接收者重新做一次UTF-8编码
+            TextFrame frame = new TextFrame();
+            frame.setPayload(payload());
+            ((WebSocketRemoteEndpoint) remote).uncheckedSendFrame(frame, callback);
+        } else {
+            remote.sendString(text(), callback);
+        }
+    }
+
+    /**
+     * 以二进制帧异步发送给指定会话
+     * @param knownSenders 该连接已收到定义的发送者ID，只能由该连接的发送线程访问
+     */
+    public void sendBinaryTo(Session session, Set<Integer> knownSenders, WriteCallback callback) {
+        BinaryForm form = binaryForm();
+        byte[] data = form.reference;
+        if (form.senderId > 0 && knownSenders.add(form.senderId)) {
+            data = form.definition;
+        }
+
+        ByteBuffer payload = ByteBuffer.wrap(data).asReadOnlyBuffer();
+        RemoteEndpoint remote = session.getRemote();
+        if (remote instanceof WebSocketRemoteEndpoint) {
+            BinaryFrame frame = new BinaryFrame();
+            frame.setPayload(payload);
+            ((WebSocketRemoteEndpoint) remote).uncheckedSendFrame(frame, callback);
+        } else {
+            remote.sendBytes(payload, callback);
+        }
+    }
+
+    private BinaryForm binaryForm() {
+        BinaryForm form = binary;
+        if (form == null) {
+            Message source = message;
+            if (source == null) {
+                try {
+                    source = MessageCodec.decode(text());
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException("Frame is not a valid message", e);
+                }
+            }
+            int senderId = SenderTable.idOf(source.getSender());
+            form = new BinaryForm(senderId, BinaryCodec.encode(source, senderId, false),
+                    senderId > 0 ? BinaryCodec.encode(source, senderId, true) : null);
+            binary = form;
+        }
+        return form;
+    }
+}
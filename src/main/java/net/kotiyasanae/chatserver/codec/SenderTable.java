@@ -0,0 +1,38 @@
+package net.kotiyasanae.chatserver.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 发送者名称到二进制协议ID的全局映射
+ * <p>
+ * ID在整个服务器内唯一，因此同一帧对所有二进制连接的编码相同；
+ * 每个连接只需在第一次遇到某个ID时收到一次定义。
+ */
+final class SenderTable {
+    // 超过上限后新名称不再分配ID，以文本形式内联
+    private static final int MAX_SENDERS = 1 << 20;
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private SenderTable() {
+    }
+
+    /**
+     * @return 发送者ID，0表示不使用ID
+     */
+    static int idOf(String sender) {
+        if (sender == null) {
+            return 0;
+        }
+        Integer id = ids.get(sender);
+        if (id != null) {
+            return id;
+        }
+        if (ids.size() >= MAX_SENDERS) {
+            return 0;
+        }
+        return ids.computeIfAbsent(sender, s -> nextId.incrementAndGet());
+    }
+}
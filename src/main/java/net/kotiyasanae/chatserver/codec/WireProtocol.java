@@ -0,0 +1,23 @@
+package net.kotiyasanae.chatserver.codec;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.UpgradeResponse;
+
+/**
+ * 会话使用的线上格式，握手时通过 Sec-WebSocket-Protocol 协商，默认为JSON文本帧
+ */
+public enum WireProtocol {
+    JSON,
+    BINARY;
+
+    /** 客户端在握手请求中声明该子协议即使用二进制帧 */
+    public static final String BINARY_SUBPROTOCOL = "chat.binary.v1";
+
+    public static WireProtocol of(Session session) {
+        UpgradeResponse response = session.getUpgradeResponse();
+        if (response != null && BINARY_SUBPROTOCOL.equals(response.getAcceptedSubProtocol())) {
+            return BINARY;
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,118 @@
+package net.kotiyasanae.chatserver.command;
+
+import net.kotiyasanae.chatserver.metrics.ChatMetrics;
+import net.kotiyasanae.chatserver.metrics.Counter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 命令的声明：名称、别名、参数说明、帮助文字和执行函数
+ * <p>
+ * 参数说明形如 "&lt;用户名&gt; &lt;消息&gt;"：尖括号为必填，方括号为可选，最后一个参数取剩余的整行。
+ * 用法提示和 .help 的内容都由声明生成
+ */
+public final class Command {
+    private final String name;
+    private final String params;
+    private final String help;
+    private final CommandHandler handler;
+    private final int paramCount;
+    private final int requiredCount;
+    private final Counter counter;
+    private List<String> aliases = Collections.emptyList();
+    private String example;
+
+    /**
+     * @param name 命令名，包括开头的 "."
+     * @param params 参数说明，没有参数时为空串
+     */
+    public Command(String name, String params, String help, CommandHandler handler) {
+        if (!name.startsWith(".") || name.length() < 2) {
+            throw new IllegalArgumentException("Invalid command name: " + name);
+        }
+        this.name = name.toLowerCase(Locale.ROOT);
+        this.params = params;
+        this.help = help;
+        this.handler = handler;
+        int count = 0;
+        int required = 0;
+        for (int i = CommandContext.skipWhitespace(params, 0); i < params.length();
+             i = CommandContext.skipWhitespace(params, CommandContext.tokenEnd(params, i))) {
+            count++;
+            if (params.charAt(i) == '<') {
+                required++;
+            }
+        }
+        this.paramCount = count;
+        this.requiredCount = required;
+        this.counter = ChatMetrics.command(this.name);
+    }
+
+    /**
+     * 设置别名，需在注册前调用
+     */
+    public Command aliases(String... aliases) {
+        for (int i = 0; i < aliases.length; i++) {
+            aliases[i] = aliases[i].toLowerCase(Locale.ROOT);
+        }
+        this.aliases = Collections.unmodifiableList(Arrays.asList(aliases));
+        return this;
+    }
+
+    /**
+     * 设置用法提示中的示例，需在注册前调用
+     */
+    public Command example(String example) {
+        this.example = example;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getAliases() {
+        return aliases;
+    }
+
+    public String getParams() {
+        return params;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    public int getParamCount() {
+        return paramCount;
+    }
+
+    public int getRequiredCount() {
+        return requiredCount;
+    }
+
+    /**
+     * 参数不足时回复的提示
+     */
+    public String getUsage() {
+        String usage = params.isEmpty() ? "用法: " + name : "用法: " + name + " " + params;
+        return example == null ? usage : usage + "，例如: " + example;
+    }
+
+    /**
+     * 计数并执行命令
+     * @return 必填参数不足时不执行，返回false，由调用方回复 {@link #getUsage()}
+     */
+    public boolean execute(CommandContext context) throws IOException {
+        counter.inc();
+        if (context.argCount() < requiredCount) {
+            return false;
+        }
+        handler.execute(context);
+        return true;
+    }
+}
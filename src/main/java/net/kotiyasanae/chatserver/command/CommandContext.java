@@ -0,0 +1,99 @@
+package net.kotiyasanae.chatserver.command;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+/**
+ * 一次命令调用：会话、用户名和命令行
+ * <p>
+ * 参数不预先切分，按命令声明的参数个数在原始字符串上扫描：前面的参数各取一个以空白分隔的词，
+ * 最后一个参数取剩余的整行。只有取用参数时才创建子串，不使用正则
+ */
+public final class CommandContext {
+    private final Session session;
+    private final String username;
+    private final String line;
+    private final Command command;
+    // 命令名之后第一个非空白字符的位置
+    private final int argsStart;
+
+    /**
+     * @param line 以命令名开头、已去掉首尾空白的命令行
+     */
+    public CommandContext(Session session, String username, String line, Command command) {
+        this.session = session;
+        this.username = username;
+        this.line = line;
+        this.command = command;
+        this.argsStart = skipWhitespace(line, tokenEnd(line, 0));
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * 第 index 个参数（从0开始），没有时返回空串；最后一个声明的参数包含剩余的整行
+     */
+    public String arg(int index) {
+        int start = argsStart;
+        int last = command.getParamCount() - 1;
+        for (int i = 0; i < index; i++) {
+            start = skipWhitespace(line, tokenEnd(line, start));
+        }
+        if (start >= line.length()) {
+            return "";
+        }
+        int end = index >= last ? trimEnd(line, start) : tokenEnd(line, start);
+        return line.substring(start, end);
+    }
+
+    /**
+     * 命令名之后的整行参数
+     */
+    public String rest() {
+        return argsStart >= line.length() ? "" : line.substring(argsStart, trimEnd(line, argsStart));
+    }
+
+    /**
+     * 实际提供的参数个数，最多为声明的个数
+     */
+    public int argCount() {
+        int count = 0;
+        int pos = argsStart;
+        while (pos < line.length() && count < command.getParamCount()) {
+            count++;
+            pos = skipWhitespace(line, tokenEnd(line, pos));
+        }
+        return count;
+    }
+
+    static int skipWhitespace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    static int tokenEnd(String s, int i) {
+        while (i < s.length() && !Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimEnd(String s, int start) {
+        int end = s.length();
+        while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
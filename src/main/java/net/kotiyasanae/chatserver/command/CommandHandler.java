@@ -0,0 +1,11 @@
+package net.kotiyasanae.chatserver.command;
+
+import java.io.IOException;
+
+/**
+ * 命令的执行函数，调用时必填参数已经齐全
+ */
+@FunctionalInterface
+public interface CommandHandler {
+    void execute(CommandContext context) throws IOException;
+}
@@ -0,0 +1,129 @@
+package net.kotiyasanae.chatserver.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 命令表：按名称和别名查找命令，并由注册的命令生成帮助文字
+ * <p>
+ * 查找在命令行上原地进行：一次扫描命令名并计算小写哈希，在开放寻址表中用
+ * {@link String#regionMatches(boolean, int, String, int, int)} 比较，不截取子串、不转换大小写。
+ * 注册时整表重建后替换（写时复制），查找不加锁
+ */
+public final class CommandRegistry {
+    private final List<Command> commands = new ArrayList<>();
+    private volatile Table table = new Table(new String[1], new Command[1]);
+    private volatile String helpText = "";
+
+    /**
+     * 注册命令，名称或别名已存在时抛出 IllegalArgumentException
+     */
+    public synchronized void register(Command command) {
+        List<String> names = new ArrayList<>();
+        names.add(command.getName());
+        names.addAll(command.getAliases());
+        for (String name : names) {
+            if (find(name) != null) {
+                throw new IllegalArgumentException("Command already registered: " + name);
+            }
+        }
+        commands.add(command);
+
+        List<String> keys = new ArrayList<>();
+        List<Command> values = new ArrayList<>();
+        for (Command c : commands) {
+            keys.add(c.getName());
+            values.add(c);
+            for (String alias : c.getAliases()) {
+                keys.add(alias);
+                values.add(c);
+            }
+        }
+        int capacity = Integer.highestOneBit(keys.size() * 2 - 1) << 1;
+        String[] slots = new String[capacity];
+        Command[] targets = new Command[capacity];
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            int slot = hash(key, key.length()) & (capacity - 1);
+            while (slots[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            slots[slot] = key;
+            targets[slot] = values.get(i);
+        }
+        table = new Table(slots, targets);
+        helpText = buildHelpText();
+    }
+
+    /**
+     * 按命令行开头的命令名查找命令，大小写不敏感
+     * @param line 已去掉首尾空白的命令行
+     * @return 未注册时返回null
+     */
+    public Command find(String line) {
+        int end = CommandContext.tokenEnd(line, 0);
+        Table t = table;
+        int mask = t.keys.length - 1;
+        for (int slot = hash(line, end) & mask; ; slot = (slot + 1) & mask) {
+            String key = t.keys[slot];
+            if (key == null) {
+                return null;
+            }
+            if (key.length() == end && line.regionMatches(true, 0, key, 0, end)) {
+                return t.commands[slot];
+            }
+        }
+    }
+
+    /**
+     * 命令行开头的命令名，用于未知命令的提示
+     */
+    public static String commandName(String line) {
+        return line.substring(0, CommandContext.tokenEnd(line, 0));
+    }
+
+    /**
+     * 按注册顺序列出全部命令及说明
+     */
+    public String getHelpText() {
+        return helpText;
+    }
+
+    public synchronized List<Command> commands() {
+        return Collections.unmodifiableList(new ArrayList<>(commands));
+    }
+
+    private String buildHelpText() {
+        StringBuilder sb = new StringBuilder("可用命令:");
+        for (Command command : commands) {
+            sb.append('\n').append(command.getName());
+            if (!command.getParams().isEmpty()) {
+                sb.append(' ').append(command.getParams());
+            }
+            sb.append(" - ").append(command.getHelp());
+            if (!command.getAliases().isEmpty()) {
+                sb.append("（别名: ").append(String.join(", ", command.getAliases())).append('）');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int hash(String s, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + Character.toLowerCase(s.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Table {
+        final String[] keys;
+        final Command[] commands;
+
+        Table(String[] keys, Command[] commands) {
+            this.keys = keys;
+            this.commands = commands;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.kotiyasanae.chatserver.encryption;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话级AES-GCM密钥，由RSA包装后交换一次，之后的消息正文都用它加密
+ * <p>
+ * 密文格式: Base64(12字节IV | 密文 | 16字节认证标签)。
+ * IV由4字节前缀和8字节递增计数组成。双方共用同一密钥，前缀的最高位按方向固定：
+ * 生成密钥的一方（客户端）为0，解开密钥的一方（服务器）为1，其余31位随机。
+ * 两个方向的IV互不相交，同一方向内计数不重复，因此同一密钥下IV不会重复；
+ * 解密时只接受对方方向的IV，原样反射回来的密文会被拒绝。
+ */
+public class AesSessionKey {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_BITS = 256;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int DIRECTION_BIT = 0x80;
+    private static final SecureRandom random = new SecureRandom();
+
+    // Cipher实例不是线程安全的，每个线程复用自己的实例
+    private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM不支持", e);
+        }
+    });
+
+    private final SecretKey key;
+    private final int peerDirection;
+    private final byte[] ivPrefix = new byte[4];
+    private final AtomicLong counter = new AtomicLong();
+    private final Base64.Encoder base64Encoder = Base64.getEncoder();
+    private final Base64.Decoder base64Decoder = Base64.getDecoder();
+
+    /**
+     * @param initiator 本方是否是生成密钥的一方，决定本方发出的IV的方向位
+     */
+    public AesSessionKey(byte[] rawKey, boolean initiator) {
+        this.key = new SecretKeySpec(rawKey, "AES");
+        int direction = initiator ? 0 : DIRECTION_BIT;
+        this.peerDirection = direction ^ DIRECTION_BIT;
+        random.nextBytes(ivPrefix);
+        ivPrefix[0] = (byte) ((ivPrefix[0] & ~DIRECTION_BIT) | direction);
+    }
+
+    /**
+     * 生成新的会话密钥，本方为生成方
+     */
+    public static AesSessionKey generate() {
+        try {
+            KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+            keyGen.init(KEY_BITS, random);
+            return new AesSessionKey(keyGen.generateKey().getEncoded(), true);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("AES算法不支持", e);
+        }
+    }
+
+    /**
+     * 原始密钥字节，用于RSA包装
+     */
+    public byte[] getEncoded() {
+        return key.getEncoded();
+    }
+
+    public String encrypt(String plainText) throws GeneralSecurityException {
+        byte[] iv = nextIv();
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+
+        byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+        byte[] out = new byte[IV_LENGTH + cipher.getOutputSize(plain.length)];
+        System.arraycopy(iv, 0, out, 0, IV_LENGTH);
+        cipher.doFinal(plain, 0, plain.length, out, IV_LENGTH);
+        return base64Encoder.encodeToString(out);
+    }
+
+    public String decrypt(String cipherText) throws GeneralSecurityException {
+        byte[] data = base64Decoder.decode(cipherText);
+        if (data.length < IV_LENGTH) {
+            throw new GeneralSecurityException("密文长度错误");
+        }
+        if ((data[0] & DIRECTION_BIT) != peerDirection) {
+            throw new GeneralSecurityException("IV方向错误");
+        }
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, 0, IV_LENGTH));
+        byte[] plain = cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    private byte[] nextIv() {
+        long n = counter.getAndIncrement();
+        byte[] iv = new byte[IV_LENGTH];
+        System.arraycopy(ivPrefix, 0, iv, 0, ivPrefix.length);
+        for (int i = IV_LENGTH - 1; i >= ivPrefix.length; i--) {
+            iv[i] = (byte) n;
+            n >>>= 8;
+        }
+        return iv;
+    }
+}
@@ -0,0 +1,205 @@
+package net.kotiyasanae.chatserver.heartbeat;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 服务器端心跳：连接空闲超过间隔时发送 ping，超时仍没有任何入站帧（包括 pong）则判定为死连接
+ * <p>
+ * 所有连接共用一个时间轮和一个线程。入站帧只更新连接的最后活动时间（时间轮的粗粒度时钟），
+ * 不重新安排定时；每个连接在时间轮上只有一项，到期时按最后活动时间决定下次检查的时刻。
+ * 同一刻度内判定死亡的连接作为一批交给驱逐回调
+ */
+public final class HeartbeatMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatMonitor.class);
+    private static final int WHEEL_SIZE = 512;
+
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final long tickMillis;
+    private final TimerWheel wheel;
+    private final Consumer<List<Session>> evictor;
+    private final Thread thread;
+    private volatile boolean running = true;
+    // 本刻度判定死亡的连接，只由心跳线程访问
+    private List<Session> expired = new ArrayList<>();
+
+    private final LongAdder pings = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * @param intervalMillis 空闲多久后发送 ping，0表示关闭心跳
+     * @param timeoutMillis 发送 ping 后等待入站帧的时间
+     * @param evictor 批量处理死连接，在心跳线程上调用
+     */
+    public HeartbeatMonitor(long intervalMillis, long timeoutMillis, long tickMillis,
+                            Consumer<List<Session>> evictor) {
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+        this.evictor = evictor;
+        this.wheel = new TimerWheel(tickMillis, WHEEL_SIZE, clock());
+        if (intervalMillis > 0) {
+            thread = new Thread(this::run, "heartbeat");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            thread = null;
+        }
+    }
+
+    public static HeartbeatMonitor create(ChatConfig config, Consumer<List<Session>> evictor) {
+        return new HeartbeatMonitor(config.getHeartbeatIntervalMillis(), config.getHeartbeatTimeoutMillis(),
+                config.getHeartbeatTickMillis(), evictor);
+    }
+
+    /**
+     * 开始监视连接，返回的对象在收到入站帧时调用 {@link Heartbeat#touch()}，连接关闭时调用 close
+     */
+    public Heartbeat register(Session session) {
+        Heartbeat heartbeat = new Heartbeat(session);
+        if (thread != null) {
+            heartbeat.timeout = wheel.schedule(heartbeat, intervalMillis);
+        }
+        return heartbeat;
+    }
+
+    public boolean isEnabled() {
+        return thread != null;
+    }
+
+    /** 受监视的连接数 */
+    public int getMonitoredCount() {
+        return wheel.size();
+    }
+
+    /** 已发送的 ping */
+    public long getPingCount() {
+        return pings.sum();
+    }
+
+    /** 因心跳超时被驱逐的连接 */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    /** 驱逐的批次数 */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public void close() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private static long clock() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(tickMillis));
+            try {
+                tick(clock());
+            } catch (RuntimeException e) {
+                logger.error("Heartbeat tick failed", e);
+            }
+        }
+    }
+
+    /**
+     * 推进时间轮并驱逐本刻度判定死亡的连接
+     */
+    void tick(long now) {
+        wheel.advance(now);
+        if (expired.isEmpty()) {
+            return;
+        }
+        List<Session> batch = expired;
+        expired = new ArrayList<>();
+        evicted.add(batch.size());
+        batches.increment();
+        logger.info("Evicting {} sessions after heartbeat timeout", batch.size());
+        evictor.accept(batch);
+    }
+
+    /**
+     * 一个连接的心跳状态
+     */
+    public final class Heartbeat implements TimerWheel.Task {
+        private final Session session;
+        private volatile long lastSeen = wheel.now();
+        private TimerWheel.Timeout timeout;
+        // 等待中的 ping，只由心跳线程访问
+        private boolean pinged;
+        private long pingSentAt;
+
+        private Heartbeat(Session session) {
+            this.session = session;
+        }
+
+        /**
+         * 收到入站帧，同一刻度内重复调用不写内存
+         */
+        public void touch() {
+            long now = wheel.now();
+            if (lastSeen != now) {
+                lastSeen = now;
+            }
+        }
+
+        public void close() {
+            TimerWheel.Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+
+        @Override
+        public long run(long now) {
+            long seen = lastSeen;
+            if (pinged) {
+                if (seen < pingSentAt) {
+                    long waited = now - pingSentAt;
+                    if (waited < timeoutMillis) {
+                        return timeoutMillis - waited;
+                    }
+                    expired.add(session);
+                    return -1;
+                }
+                pinged = false;
+            }
+
+            long idle = now - seen;
+            if (idle < intervalMillis) {
+                return intervalMillis - idle;
+            }
+            if (!session.isOpen()) {
+                return -1;
+            }
+            try {
+                session.getRemote().sendPing(BufferUtil.EMPTY_BUFFER);
+                pings.increment();
+            } catch (Exception e) {
+                logger.debug("Ping failed for {}: {}", session.getRemoteAddress(), e.toString());
+            }
+            pinged = true;
+            pingSentAt = now;
+            return timeoutMillis;
+        }
+    }
+}
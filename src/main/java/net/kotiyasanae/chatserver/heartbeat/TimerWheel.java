@@ -0,0 +1,169 @@
+package net.kotiyasanae.chatserver.heartbeat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 哈希时间轮：固定数量的槽组成环，每个槽是一条定时任务链表，每过一个刻度处理一个槽
+ * <p>
+ * 添加任务只是入队，取消只是置标记，都是O(1)且不加锁；到期的任务由推进时间轮的线程执行。
+ * 延迟超过一圈的任务记录剩余圈数，经过时减一。任务返回下次执行的延迟，原地重新挂到对应的槽，
+ * 不重新分配。精度为一个刻度
+ * <p>
+ * {@link #advance(long)} 只能由同一个线程调用
+ */
+public final class TimerWheel {
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+    /**
+     * 定时任务
+     */
+    @FunctionalInterface
+    public interface Task {
+        /**
+         * @param now 当前时间（毫秒，与 {@link #advance(long)} 的参数同一时钟）
+         * @return 距下次执行的毫秒数，负数表示结束
+         */
+        long run(long now);
+    }
+
+    /**
+     * 已添加的任务，可以取消
+     */
+    public static final class Timeout {
+        private final Task task;
+        private final long delay;
+        private long rounds;
+        private Timeout next;
+        private volatile boolean cancelled;
+
+        private Timeout(Task task, long delay) {
+            this.task = task;
+            this.delay = delay;
+        }
+
+        /** 取消后不再执行，在所在的槽下次被处理时移除 */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timeout[] slots;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    // 已处理到的刻度数，只由推进线程访问
+    private long ticks;
+    private final long startMillis;
+    private volatile long now;
+    private volatile int size;
+
+    /**
+     * @param tickMillis 刻度（毫秒）
+     * @param wheelSize 槽数，取整为2的幂
+     * @param startMillis 起始时间
+     */
+    public TimerWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMillis and wheelSize must be positive");
+        }
+        int capacity = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.slots = new Timeout[Math.max(capacity, 1)];
+        this.mask = slots.length - 1;
+        this.startMillis = startMillis;
+        this.now = startMillis;
+    }
+
+    /**
+     * 添加任务，可从任意线程调用，在下次推进时挂到槽上
+     */
+    public Timeout schedule(Task task, long delayMillis) {
+        Timeout timeout = new Timeout(task, delayMillis);
+        added.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * 推进到指定时间，依次处理经过的每个槽
+     * @return 本次执行的任务数
+     */
+    public int advance(long nowMillis) {
+        this.now = nowMillis;
+        int count = size;
+        for (Timeout t; (t = added.poll()) != null; ) {
+            if (!t.cancelled) {
+                insert(t, t.delay);
+                count++;
+            }
+        }
+
+        int executed = 0;
+        long target = (nowMillis - startMillis) / tickMillis;
+        while (ticks < target) {
+            ticks++;
+            int index = (int) (ticks & mask);
+            Timeout t = slots[index];
+            slots[index] = null;
+            while (t != null) {
+                Timeout next = t.next;
+                t.next = null;
+                if (t.cancelled) {
+                    count--;
+                } else if (t.rounds > 0) {
+                    t.rounds--;
+                    push(index, t);
+                } else {
+                    executed++;
+                    long delay = run(t, nowMillis);
+                    if (delay >= 0 && !t.cancelled) {
+                        insert(t, delay);
+                    } else {
+                        count--;
+                    }
+                }
+                t = next;
+            }
+        }
+        size = count;
+        return executed;
+    }
+
+    /** 最近一次推进的时间，可作为粗粒度的时钟 */
+    public long now() {
+        return now;
+    }
+
+    /** 最近一次推进后挂在时间轮上的任务数 */
+    public int size() {
+        return size;
+    }
+
+    private static long run(Timeout t, long nowMillis) {
+        try {
+            return t.task.run(nowMillis);
+        } catch (RuntimeException e) {
+            logger.error("Timer task failed", e);
+            return -1;
+        }
+    }
+
+    private void insert(Timeout t, long delayMillis) {
+        // 至少推迟一个刻度，避免在当前槽内重复执行
+        long delayTicks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        t.rounds = (delayTicks - 1) / slots.length;
+        push((int) ((ticks + delayTicks) & mask), t);
+    }
+
+    private void push(int index, Timeout t) {
+        t.next = slots[index];
+        slots[index] = t;
+    }
+}
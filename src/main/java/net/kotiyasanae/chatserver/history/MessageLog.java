@@ -0,0 +1,571 @@
+package net.kotiyasanae.chatserver.history;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 本地磁盘上的分段追加日志，保存已编码好的消息帧
+ * <p>
+ * 写入由单独的线程批量完成，每批只调用一次fsync（组提交）。
+ * 每个房间在内存中保留最近若干条记录的位置，回放时通过内存映射直接读取对应记录，不需要解析整个日志。
+ * <p>
+ * 记录格式: int 长度 | int CRC32 | long 时间戳 | short 房间名长度 | 房间名(UTF-8) | 帧数据
+ */
+public class MessageLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MessageLog.class);
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = 4 + 4;
+    /** 长度、CRC、时间戳和房间名长度，不含房间名和帧 */
+    private static final int MIN_RECORD_SIZE = HEADER_SIZE + 8 + 2;
+    private static final int MAX_BATCH = 1024;
+    private static final long RETENTION_CHECK_MILLIS = 60_000;
+
+    private final Path dir;
+    private final int indexPerRoom;
+    private final long segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, RoomIndex> roomIndexes = new ConcurrentHashMap<>();
+    private final BlockingQueue<PendingRecord> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object progressLock = new Object();
+    private long processed;
+    private long appendedBytes;
+    private long fsyncs;
+
+    // 仅由写线程访问
+    private Segment active;
+    private FileChannel activeChannel;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private long lastRetentionCheck;
+
+    private static final class PendingRecord {
+        final String room;
+        final byte[] roomBytes;
+        final byte[] frame;
+        final long timestamp;
+
+        PendingRecord(String room, byte[] frame, long timestamp) {
+            this.room = room;
+            this.roomBytes = room.getBytes(StandardCharsets.UTF_8);
+            this.frame = frame;
+            this.timestamp = timestamp;
+        }
+
+        int size() {
+            return MIN_RECORD_SIZE + roomBytes.length + frame.length;
+        }
+    }
+
+    /**
+     * 一个日志分段文件，提交长度之前的数据对读线程可见
+     */
+    private static final class Segment {
+        final long id;
+        final Path path;
+        volatile long committedSize;
+        volatile long lastAppendMillis;
+        private MappedByteBuffer mapped;
+
+        Segment(long id, Path path, long size, long lastAppendMillis) {
+            this.id = id;
+            this.path = path;
+            this.committedSize = size;
+            this.lastAppendMillis = lastAppendMillis;
+        }
+
+        /**
+         * 返回至少覆盖到limit的只读映射；已有映射足够时直接复用，只有读到映射之后新提交的记录才重新映射
+         */
+        synchronized ByteBuffer map(long limit) throws IOException {
+            if (mapped == null || mapped.capacity() < limit) {
+                // 旧映射不再被引用，随缓冲对象回收时解除
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, committedSize);
+                }
+            }
+            return mapped.duplicate();
+        }
+    }
+
+    /**
+     * 每个房间最近记录位置的环形索引，位置编码为 (分段号 &lt;&lt; 32) | 偏移
+     */
+    private static final class RoomIndex {
+        private final long[] refs;
+        private int next;
+        private int count;
+
+        RoomIndex(int capacity) {
+            this.refs = new long[capacity];
+        }
+
+        synchronized void add(long ref) {
+            refs[next] = ref;
+            next = (next + 1) % refs.length;
+            if (count < refs.length) {
+                count++;
+            }
+        }
+
+        synchronized long[] last(int n) {
+            int size = Math.min(n, count);
+            long[] result = new long[size];
+            int start = (next - size + refs.length) % refs.length;
+            for (int i = 0; i < size; i++) {
+                result[i] = refs[(start + i) % refs.length];
+            }
+            return result;
+        }
+    }
+
+    public MessageLog(Path dir, int indexPerRoom, int queueCapacity, long segmentBytes,
+                      long retentionBytes, long retentionMillis) throws IOException {
+        if (segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes must fit in an int: " + segmentBytes);
+        }
+        this.dir = dir;
+        this.indexPerRoom = Math.max(1, indexPerRoom);
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Files.createDirectories(dir);
+        recover();
+
+        this.writer = new Thread(this::writeLoop, "message-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 追加一条记录，不阻塞调用线程；写队列已满时丢弃并计数
+     * @return 是否成功入队
+     */
+    public boolean append(String room, byte[] frame) {
+        if (!running) {
+            return false;
+        }
+        if (!queue.offer(new PendingRecord(room, frame, System.currentTimeMillis()))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        enqueued.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 等待调用前入队的记录全部落盘
+     */
+    public void flush() throws InterruptedException {
+        long target = enqueued.get();
+        synchronized (progressLock) {
+            while (processed < target && writer.isAlive()) {
+                progressLock.wait(100);
+            }
+        }
+    }
+
+    /**
+     * 读取房间最近的n条记录，按写入顺序返回帧数据
+     */
+    public List<byte[]> readLast(String room, int n) {
+        RoomIndex index = roomIndexes.get(room);
+        if (index == null || n <= 0) {
+            return Collections.emptyList();
+        }
+
+        long[] refs = index.last(n);
+        List<byte[]> frames = new ArrayList<>(refs.length);
+        CRC32 crc = new CRC32();
+        for (long ref : refs) {
+            Segment segment = segments.get(ref >>> 32);
+            if (segment == null) {
+                continue; // 分段已被保留策略删除
+            }
+            int position = (int) ref;
+            long committed = segment.committedSize;
+            try {
+                if (position < 0 || position + MIN_RECORD_SIZE > committed) {
+                    throw new IOException("record offset " + position + " beyond committed size " + committed);
+                }
+                ByteBuffer buffer = segment.map(position + 4);
+                long end = position + 4L + buffer.getInt(position);
+                if (end > committed) {
+                    throw new IOException("record at " + position + " ends beyond committed size " + committed);
+                }
+                if (end > buffer.capacity()) {
+                    buffer = segment.map(end);
+                }
+                if (!isValid(buffer, position, committed, crc)) {
+                    throw new IOException("corrupt record at " + position);
+                }
+                frames.add(readFrame(buffer, position));
+            } catch (IOException | RuntimeException e) {
+                // 单条记录损坏或读取失败只跳过该条，不影响其余历史
+                logger.error("History read error in {}: {}", segment.path.getFileName(), e.toString());
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 校验position处的记录：长度、房间名长度在界内且CRC一致
+     */
+    private static boolean isValid(ByteBuffer buffer, int position, long limit, CRC32 crc) {
+        int length = buffer.getInt(position);
+        if (length < MIN_RECORD_SIZE - 4 || position + 4L + length > limit) {
+            return false;
+        }
+        int roomLength = buffer.getShort(position + HEADER_SIZE + 8);
+        if (roomLength < 0 || roomLength > length - (MIN_RECORD_SIZE - 4)) {
+            return false;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(position + HEADER_SIZE).limit(position + 4 + length);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue() == buffer.getInt(position + 4);
+    }
+
+    private static byte[] readFrame(ByteBuffer buffer, int position) {
+        int length = buffer.getInt(position);
+        int roomLength = buffer.getShort(position + HEADER_SIZE + 8);
+        int frameOffset = position + MIN_RECORD_SIZE + roomLength;
+        byte[] frame = new byte[position + 4 + length - frameOffset];
+        ByteBuffer view = buffer.duplicate(); // 映射缓冲被多个读线程共享，不能移动它的position
+        view.position(frameOffset);
+        view.get(frame);
+        return frame;
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingRecord first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    writeBatch(batch);
+                }
+                maybeApplyRetention();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                // 写线程不能因单批失败退出，否则之后的历史都不再落盘
+                logger.error("History write error", e);
+                rewind();
+            } finally {
+                if (!batch.isEmpty()) {
+                    markProcessed(batch.size());
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingRecord> batch) throws IOException {
+        long[] refs = new long[batch.size()];
+        long position = active.committedSize;
+        writeBuffer.clear();
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingRecord record = batch.get(i);
+            int size = record.size();
+            if (position + size > segmentBytes && position > 0) {
+                // 当前分段写满，先提交已缓冲的记录再切换分段
+                commit(batch, refs, i, position);
+                roll();
+                position = 0;
+            }
+            if (writeBuffer.remaining() < size) {
+                flushBuffer();
+            }
+            refs[i] = (active.id << 32) | position;
+            putRecord(record, size);
+            position += size;
+        }
+        commit(batch, refs, batch.size(), position);
+    }
+
+    /**
+     * 批次写入失败后丢弃未提交的部分：截断到已提交大小并把写位置拨回，
+     * 否则后续记录的偏移会和文件内容错开；截断也失败时换一个新分段
+     */
+    private void rewind() {
+        writeBuffer.clear();
+        try {
+            activeChannel.truncate(active.committedSize);
+            activeChannel.position(active.committedSize);
+        } catch (IOException | RuntimeException e) {
+            logger.error("History rewind of {} failed, rolling to a new segment", active.path.getFileName(), e);
+            try {
+                roll();
+            } catch (IOException | RuntimeException re) {
+                logger.error("History segment roll failed", re);
+            }
+        }
+    }
+
+    private void putRecord(PendingRecord record, int size) {
+        if (writeBuffer.capacity() < size) {
+            writeBuffer = ByteBuffer.allocate(size);
+        }
+        int start = writeBuffer.position();
+        writeBuffer.putInt(size - 4);
+        writeBuffer.putInt(0);
+        writeBuffer.putLong(record.timestamp);
+        writeBuffer.putShort((short) record.roomBytes.length);
+        writeBuffer.put(record.roomBytes);
+        writeBuffer.put(record.frame);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer body = writeBuffer.duplicate();
+        body.position(start + HEADER_SIZE).limit(start + size);
+        crc.update(body);
+        writeBuffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void flushBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            activeChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * 写出缓冲并fsync，然后才让读线程看到这些记录
+     */
+    private void commit(List<PendingRecord> batch, long[] refs, int end, long position) throws IOException {
+        flushBuffer();
+        activeChannel.force(false);
+        active.committedSize = position;
+        active.lastAppendMillis = System.currentTimeMillis();
+
+        long bytes = 0;
+        for (int i = 0; i < end; i++) {
+            if (refs[i] == -1) {
+                continue; // 已在之前的提交中建立索引
+            }
+            PendingRecord record = batch.get(i);
+            roomIndexes.computeIfAbsent(record.room, r -> new RoomIndex(indexPerRoom)).add(refs[i]);
+            bytes += record.size();
+            refs[i] = -1;
+        }
+        synchronized (progressLock) {
+            appendedBytes += bytes;
+            fsyncs++;
+        }
+    }
+
+    private void markProcessed(int count) {
+        synchronized (progressLock) {
+            processed += count;
+            progressLock.notifyAll();
+        }
+    }
+
+    private void roll() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+        long id = active == null ? 0 : active.id + 1;
+        openActive(new Segment(id, segmentPath(id), 0, System.currentTimeMillis()));
+        applyRetention();
+    }
+
+    private void openActive(Segment segment) throws IOException {
+        activeChannel = FileChannel.open(segment.path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeChannel.truncate(segment.committedSize);
+        activeChannel.position(segment.committedSize);
+        segments.put(segment.id, segment);
+        active = segment;
+    }
+
+    private Path segmentPath(long id) {
+        return dir.resolve(String.format("%020d%s", id, SUFFIX));
+    }
+
+    private void maybeApplyRetention() {
+        long now = System.currentTimeMillis();
+        if (now - lastRetentionCheck >= RETENTION_CHECK_MILLIS) {
+            lastRetentionCheck = now;
+            applyRetention();
+        }
+    }
+
+    /**
+     * 按总大小和存活时间删除最旧的已封存分段，当前写入分段不会被删除
+     */
+    private void applyRetention() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.committedSize;
+        }
+
+        long expireBefore = System.currentTimeMillis() - retentionMillis;
+        for (Segment segment : segments.values()) {
+            if (segment == active) {
+                break;
+            }
+            boolean tooLarge = retentionBytes > 0 && total > retentionBytes;
+            boolean tooOld = retentionMillis > 0 && segment.lastAppendMillis < expireBefore;
+            if (!tooLarge && !tooOld) {
+                break;
+            }
+            segments.remove(segment.id);
+            total -= segment.committedSize;
+            try {
+                Files.deleteIfExists(segment.path);
+                logger.info("Deleted history segment {}", segment.path.getFileName());
+            } catch (IOException e) {
+                logger.error("History retention error for {}", segment.path.getFileName(), e);
+            }
+        }
+    }
+
+    /**
+     * 启动时扫描已有分段，重建房间索引；截断最后一个分段末尾不完整的记录
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+
+        Segment last = null;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id;
+            try {
+                id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            long size = Files.size(file);
+            Segment segment = new Segment(id, file, size, Files.getLastModifiedTime(file).toMillis());
+            segment.committedSize = scan(segment, size);
+            segments.put(id, segment);
+            last = segment;
+        }
+
+        if (last == null) {
+            roll();
+        } else if (last.committedSize >= segmentBytes) {
+            active = last;
+            roll();
+        } else {
+            openActive(last);
+        }
+        logger.info("Message log opened at {} with {} segment(s)", dir, segments.size());
+    }
+
+    /**
+     * 扫描分段中的记录并建立索引
+     * @return 最后一条有效记录的结束位置
+     */
+    private long scan(Segment segment, long size) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        int position = 0;
+        CRC32 crc = new CRC32();
+        while (position + MIN_RECORD_SIZE <= size) {
+            if (!isValid(buffer, position, size, crc)) {
+                break;
+            }
+            int length = buffer.getInt(position);
+            int roomLength = buffer.getShort(position + HEADER_SIZE + 8);
+
+            byte[] roomBytes = new byte[roomLength];
+            buffer.position(position + MIN_RECORD_SIZE);
+            buffer.get(roomBytes);
+            String room = new String(roomBytes, StandardCharsets.UTF_8);
+            roomIndexes.computeIfAbsent(room, r -> new RoomIndex(indexPerRoom))
+                    .add((segment.id << 32) | position);
+
+            position += 4 + length;
+        }
+        if (position < size) {
+            logger.warn("Truncating {} bytes of incomplete records in {}", size - position, segment.path.getFileName());
+        }
+        return position;
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getAppendedBytes() {
+        synchronized (progressLock) {
+            return appendedBytes;
+        }
+    }
+
+    public long getFsyncCount() {
+        synchronized (progressLock) {
+            return fsyncs;
+        }
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // 不中断写线程，中断会关闭正在写入的FileChannel；写线程在队列清空后自行退出
+        running = false;
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package net.kotiyasanae.chatserver.history;
+
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * 每个房间最近消息的内存环形缓冲，保存已编码好的帧
+ * <p>
+ * 写入和读取都不加锁。每个房间的条目数和字节数都有上限，长时间没有新消息的房间会被整体回收。
+ * <p>
+ * 通过 {@link #append} 写入时条目的序号就是房间广播的序号。序号从房间缓冲创建时的毫秒时间×1000开始，
+ * 房间被回收后重新创建仍然递增
+ */
+public class RecentMessages {
+    private static final long SWEEP_INTERVAL_MILLIS = 60_000;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long idleMillis;
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+    private static final class Entry {
+        final long seq;
+        final OutboundFrame frame;
+
+        Entry(long seq, OutboundFrame frame) {
+            this.seq = seq;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * 单个房间的环形缓冲，head为下一个写入序号，tail为最旧的保留序号
+     */
+    private final class Ring {
+        private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(maxEntries);
+        private final AtomicLong head = new AtomicLong(System.currentTimeMillis() * 1000);
+        private final AtomicLong tail = new AtomicLong(head.get());
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        void add(OutboundFrame frame, long now) {
+            long seq = head.getAndIncrement();
+            Entry old = slots.getAndSet(index(seq), new Entry(seq, frame));
+            bytes.addAndGet(frame.size() - (old != null ? old.frame.size() : 0));
+            lastActivity = now;
+
+            // 超过字节上限时从最旧的条目开始淘汰，至少保留刚写入的这一条
+            while (bytes.get() > maxBytes) {
+                long t = tail.get();
+                long oldestInRing = head.get() - maxEntries;
+                if (t < oldestInRing) {
+                    tail.compareAndSet(t, oldestInRing);
+                    continue;
+                }
+                if (t >= seq) {
+                    break;
+                }
+                if (tail.compareAndSet(t, t + 1)) {
+                    Entry victim = slots.get(index(t));
+                    if (victim != null && victim.seq == t && slots.compareAndSet(index(t), victim, null)) {
+                        bytes.addAndGet(-victim.frame.size());
+                    }
+                }
+            }
+        }
+
+        List<OutboundFrame> last(int n) {
+            long end = head.get();
+            long start = Math.max(Math.max(tail.get(), end - maxEntries), end - n);
+            List<OutboundFrame> frames = new ArrayList<>((int) Math.max(0, end - start));
+            for (long seq = Math.max(start, 0); seq < end; seq++) {
+                Entry entry = slots.get(index(seq));
+                // 跳过尚未写完或已被覆盖的槽位
+                if (entry != null && entry.seq == seq) {
+                    frames.add(entry.frame);
+                }
+            }
+            return frames;
+        }
+
+        /**
+         * 依次交出序号seq之后仍在缓冲中的条目
+         * @return 缓冲中包含seq之后的全部条目返回true
+         */
+        boolean after(long seq, Consumer<OutboundFrame> consumer) {
+            long end = head.get();
+            long start = Math.max(tail.get(), end - maxEntries);
+            boolean complete = seq + 1 >= start && seq < end;
+            for (long s = Math.max(start, seq + 1); s < end; s++) {
+                Entry entry = slots.get(index(s));
+                if (entry != null && entry.seq == s) {
+                    consumer.accept(entry.frame);
+                } else {
+                    complete = false;
+                }
+            }
+            return complete;
+        }
+
+        private int index(long seq) {
+            return (int) (seq % maxEntries);
+        }
+    }
+
+    public RecentMessages(int maxEntries, long maxBytes, long idleMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * 记录房间内刚广播的帧
+     */
+    public void add(String room, OutboundFrame frame) {
+        long now = System.currentTimeMillis();
+        rings.computeIfAbsent(room, r -> new Ring()).add(frame, now);
+        sweepIdle(now);
+    }
+
+    /**
+     * 在房间的追加锁内分配下一个序号，由publisher用该序号编码（并投递）后记录返回的帧。
+     * 同一房间的追加串行执行，publisher内投递的帧按序号顺序到达各接收者
+     * @return publisher返回的帧，为null时不记录也不占用序号
+     */
+    public OutboundFrame append(String room, LongFunction<OutboundFrame> publisher) {
+        long now = System.currentTimeMillis();
+        Ring ring = rings.computeIfAbsent(room, r -> new Ring());
+        OutboundFrame frame;
+        synchronized (ring) {
+            frame = publisher.apply(ring.head.get());
+            if (frame != null) {
+                ring.add(frame, now);
+            }
+        }
+        sweepIdle(now);
+        return frame;
+    }
+
+    /**
+     * 在房间的追加锁内把序号seq之后仍在缓冲中的帧按顺序交给consumer，然后执行attach，期间没有新的追加，
+     * 用于断线重连：补发后再加入房间，之后的广播不重复也不遗漏
+     * @return 缓冲中包含seq之后的全部帧返回true；有缺失或seq无效时返回false，仍交出缓冲中的帧
+     */
+    public boolean replayAfter(String room, long seq, Consumer<OutboundFrame> consumer, Runnable attach) {
+        Ring ring = rings.computeIfAbsent(room, r -> new Ring());
+        synchronized (ring) {
+            boolean complete = ring.after(seq, consumer);
+            attach.run();
+            return complete;
+        }
+    }
+
+    /**
+     * 房间缓冲尚未建立时（启动以来没有写入，或空闲被回收）用frames预填，已有缓冲时不做任何事。
+     * 用于从磁盘补齐一次后，之后的回放都只读内存
+     * @return 是否预填
+     */
+    public boolean seed(String room, List<OutboundFrame> frames) {
+        long now = System.currentTimeMillis();
+        boolean[] seeded = new boolean[1];
+        rings.computeIfAbsent(room, r -> {
+            Ring ring = new Ring();
+            for (OutboundFrame frame : frames) {
+                ring.add(frame, now);
+            }
+            seeded[0] = true;
+            return ring;
+        });
+        return seeded[0];
+    }
+
+    /**
+     * 房间是否还没有缓冲：启动以来没有写入过，或因空闲已被回收
+     */
+    public boolean isCold(String room) {
+        return !rings.containsKey(room);
+    }
+
+    /**
+     * 房间最近的n条帧，按写入顺序
+     */
+    public List<OutboundFrame> last(String room, int n) {
+        Ring ring = rings.get(room);
+        return ring != null ? ring.last(n) : Collections.emptyList();
+    }
+
+    /**
+     * 回收空闲房间，最多每分钟执行一次，由写入线程顺带完成
+     */
+    private void sweepIdle(long now) {
+        long last = lastSweep.get();
+        if (idleMillis <= 0 || now - last < SWEEP_INTERVAL_MILLIS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        rings.entrySet().removeIf(e -> now - e.getValue().lastActivity > idleMillis);
+    }
+
+    public int getRoomCount() {
+        return rings.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+}
@@ -0,0 +1,151 @@
+package net.kotiyasanae.chatserver.loadtest;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketListener;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 一个压测连接：JOIN -> .join 房间 -> 收发消息
+ * <p>
+ * 聊天正文为"lt:&lt;发送时的nanoTime&gt;"，接收方据此计算端到端延迟；
+ * 命令的回复（SYSTEM/ERROR）按发送顺序与待回复队列匹配，得到往返时间。
+ * 为了不让客户端解析成为瓶颈，只用字符串查找识别消息。
+ */
+final class LoadClient implements WebSocketListener, WriteCallback {
+    static final String LATENCY_PREFIX = "lt:";
+    private static final String CONTENT_MARKER = "\"content\":\"" + LATENCY_PREFIX;
+
+    private final String username;
+    private final String room;
+    private final LoadStats stats;
+    private final CompletableFuture<LoadClient> ready = new CompletableFuture<>();
+    private final ConcurrentLinkedQueue<Long> pendingCommands = new ConcurrentLinkedQueue<>();
+    private volatile Session session;
+    private volatile long joinedAt = Long.MAX_VALUE;
+    private volatile boolean joinedServer;
+
+    LoadClient(String username, String room, LoadStats stats) {
+        this.username = username;
+        this.room = room;
+        this.stats = stats;
+    }
+
+    CompletableFuture<LoadClient> ready() {
+        return ready;
+    }
+
+    boolean isOpen() {
+        Session s = session;
+        return s != null && s.isOpen() && ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    void sendChat() {
+        send("{\"type\":\"CHAT\",\"room\":\"" + room + "\",\"content\":\""
+                + LATENCY_PREFIX + System.nanoTime() + "\"}");
+        stats.chatsSent.increment();
+    }
+
+    void sendCommand(String command) {
+        pendingCommands.add(System.nanoTime());
+        send("{\"type\":\"CHAT\",\"content\":\"" + command + "\"}");
+        stats.commandsSent.increment();
+    }
+
+    private void send(String text) {
+        Session s = session;
+        if (s != null && s.isOpen()) {
+            s.getRemote().sendString(text, this);
+        }
+    }
+
+    void close() {
+        Session s = session;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    @Override
+    public void onWebSocketConnect(Session session) {
+        this.session = session;
+        send("{\"type\":\"JOIN\",\"sender\":\"" + username + "\"}");
+    }
+
+    @Override
+    public void onWebSocketText(String text) {
+        long now = System.nanoTime();
+        if (!ready.isDone()) {
+            handshake(text, now);
+            return;
+        }
+
+        int marker = text.indexOf(CONTENT_MARKER);
+        if (marker >= 0) {
+            long sentAt = parseLong(text, marker + CONTENT_MARKER.length());
+            // 跳过加入前的历史回放
+            if (sentAt >= joinedAt) {
+                stats.delivery.record((now - sentAt) / 1000);
+            }
+            stats.received.increment();
+            return;
+        }
+        if (text.contains("\"type\":\"SYSTEM\"") || text.contains("\"type\":\"ERROR\"")) {
+            Long sentAt = pendingCommands.poll();
+            if (sentAt != null) {
+                stats.command.record((now - sentAt) / 1000);
+            }
+        }
+    }
+
+    private void handshake(String text, long now) {
+        if (text.contains("\"type\":\"ERROR\"")) {
+            ready.completeExceptionally(new IllegalStateException(username + ": " + text));
+        } else if (!joinedServer && text.contains("欢迎 " + username + " 加入聊天室")) {
+            joinedServer = true;
+            send("{\"type\":\"CHAT\",\"content\":\".join " + room + "\"}");
+        } else if (joinedServer && text.contains("已进入房间 " + room)) {
+            joinedAt = now;
+            ready.complete(this);
+        }
+    }
+
+    private static long parseLong(String text, int from) {
+        long value = 0;
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    @Override
+    public void onWebSocketBinary(byte[] payload, int offset, int len) {
+    }
+
+    @Override
+    public void onWebSocketClose(int statusCode, String reason) {
+        stats.closed.increment();
+        ready.completeExceptionally(new IllegalStateException(username + " closed: " + statusCode + " " + reason));
+    }
+
+    @Override
+    public void onWebSocketError(Throwable cause) {
+        stats.errors.increment();
+        ready.completeExceptionally(cause);
+    }
+
+    @Override
+    public void writeFailed(Throwable x) {
+        stats.errors.increment();
+    }
+
+    @Override
+    public void writeSuccess() {
+    }
+}
@@ -0,0 +1,225 @@
+package net.kotiyasanae.chatserver.loadtest;
+
+import net.kotiyasanae.chatserver.ChatServer;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket压测工具，只允许连接本机
+ * <p>
+ * 参数为 key=value，也可用系统属性 -Dload.key=value：
+ * <pre>
+ * url=ws://localhost:9000/chat  服务器地址
+ * clients=1000                  连接数
+ * rooms=10                      房间数，连接平均分配到各房间
+ * duration=30                   发送阶段时长（秒）
+ * rate=1000                     每秒发送的消息总数（聊天+命令）
+ * commandRatio=0.1              命令所占比例
+ * connectConcurrency=200        同时进行握手的连接数
+ * embedded=false                在本进程内启动服务器
+ * </pre>
+ * 例: gradle loadTest --args="clients=5000 rate=5000 embedded=true"
+ * 所有连接都来自本机，单独启动的服务器须加 -Dchat.ratelimit.address.factor=0 关闭按地址限流，
+ * 每个连接的速率（rate/clients）也不能超过 chat.ratelimit.chat.rate
+ */
+public class LoadGenerator {
+    private static final String[] COMMANDS = {".ping", ".time", ".rooms", ".users"};
+    private static final long TICK_MICROS = 1000;
+
+    private final Map<String, String> options;
+    private final LoadStats stats = new LoadStats();
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    private String option(String key, String defaultValue) {
+        String value = options.get(key);
+        return value != null ? value : System.getProperty("load." + key, defaultValue);
+    }
+
+    private int intOption(String key, int defaultValue) {
+        return Integer.parseInt(option(key, String.valueOf(defaultValue)));
+    }
+
+    void run() throws Exception {
+        URI uri = URI.create(option("url", "ws://localhost:9000/chat"));
+        int clients = intOption("clients", 1000);
+        int rooms = Math.max(1, intOption("rooms", 10));
+        int durationSeconds = intOption("duration", 30);
+        double rate = Double.parseDouble(option("rate", "1000"));
+        double commandRatio = Double.parseDouble(option("commandRatio", "0.1"));
+        int connectConcurrency = Math.max(1, intOption("connectConcurrency", 200));
+        boolean embedded = Boolean.parseBoolean(option("embedded", "false"));
+
+        if (!InetAddress.getByName(uri.getHost()).isLoopbackAddress()) {
+            throw new IllegalArgumentException("只允许压测本机服务器: " + uri);
+        }
+
+        ChatServer server = null;
+        if (embedded) {
+            server = new ChatServer(uri.getPort());
+            server.start();
+        }
+
+        WebSocketClient client = new WebSocketClient();
+        client.start();
+        try {
+            List<LoadClient> connected = connect(client, uri, clients, rooms, connectConcurrency);
+            if (connected.isEmpty()) {
+                System.out.println("没有可用的连接，压测结束");
+                return;
+            }
+            drive(connected, durationSeconds, rate, commandRatio);
+            connected.forEach(LoadClient::close);
+            // 等待关闭握手完成，避免服务器仍在写出时连接被直接断开
+            Thread.sleep(1000);
+        } finally {
+            client.stop();
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private List<LoadClient> connect(WebSocketClient client, URI uri, int clients, int rooms,
+                                     int concurrency) throws InterruptedException {
+        String runId = Long.toString(System.currentTimeMillis() % 46656, 36);
+        Semaphore inFlight = new Semaphore(concurrency);
+        List<LoadClient> all = new ArrayList<>(clients);
+        List<CompletableFuture<LoadClient>> pending = new ArrayList<>(clients);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            inFlight.acquire();
+            LoadClient loadClient = new LoadClient("lg" + runId + "-" + i, "load-" + (i % rooms), stats);
+            long begin = System.nanoTime();
+            // 服务器过载时加入确认可能被丢弃，超时后释放名额，避免连接阶段卡住
+            CompletableFuture<LoadClient> ready = loadClient.ready().orTimeout(30, TimeUnit.SECONDS);
+            ready.whenComplete((c, e) -> {
+                inFlight.release();
+                if (e == null) {
+                    stats.connect.record((System.nanoTime() - begin) / 1000);
+                }
+            });
+            try {
+                client.connect(loadClient, uri);
+            } catch (Exception e) {
+                loadClient.ready().completeExceptionally(e);
+            }
+            all.add(loadClient);
+            pending.add(ready);
+        }
+
+        List<LoadClient> connected = new ArrayList<>(clients);
+        int failed = 0;
+        for (CompletableFuture<LoadClient> ready : pending) {
+            try {
+                connected.add(ready.get(30, TimeUnit.SECONDS));
+            } catch (Exception e) {
+                if (++failed <= 5) {
+                    System.err.println("连接失败: " + e);
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Connected %d/%d clients in %.2fs (%.0f conn/s), failed %d%n",
+                connected.size(), clients, seconds, connected.size() / seconds, failed);
+        System.out.println("  connect+join latency: " + stats.connect.summary());
+        return connected;
+    }
+
+    private void drive(List<LoadClient> clients, int durationSeconds, double rate, double commandRatio)
+            throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "load-driver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        double perTick = rate * TICK_MICROS / 1_000_000.0;
+        double[] budget = {0};
+        int[] next = {0};
+        scheduler.scheduleAtFixedRate(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            budget[0] += perTick;
+            while (budget[0] >= 1) {
+                budget[0] -= 1;
+                LoadClient c = clients.get(next[0]++ % clients.size());
+                if (!c.isOpen()) {
+                    continue;
+                }
+                if (random.nextDouble() < commandRatio) {
+                    c.sendCommand(COMMANDS[random.nextInt(COMMANDS.length)]);
+                } else {
+                    c.sendChat();
+                }
+            }
+        }, 0, TICK_MICROS, TimeUnit.MICROSECONDS);
+
+        long start = System.nanoTime();
+        long lastSent = 0;
+        long lastReceived = 0;
+        for (int second = 5; second <= durationSeconds; second += 5) {
+            Thread.sleep(5000);
+            long sent = stats.chatsSent.sum() + stats.commandsSent.sum();
+            long received = stats.received.sum();
+            System.out.printf("[%3ds] sent %.0f/s, delivered %.0f/s, delivery p99=%.2fms%n", second,
+                    (sent - lastSent) / 5.0, (received - lastReceived) / 5.0,
+                    stats.delivery.getValueAtPercentile(99) / 1000.0);
+            lastSent = sent;
+            lastReceived = received;
+        }
+        Thread.sleep((durationSeconds % 5) * 1000L);
+        scheduler.shutdownNow();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // 等待在途消息送达
+        Thread.sleep(2000);
+        report(seconds);
+    }
+
+    private void report(double seconds) {
+        long chats = stats.chatsSent.sum();
+        long commands = stats.commandsSent.sum();
+        System.out.println("==== Result ====");
+        System.out.printf("Sent %d chats + %d commands in %.1fs (%.0f msg/s)%n",
+                chats, commands, seconds, (chats + commands) / seconds);
+        System.out.printf("Delivered %d chat frames (%.0f frames/s)%n",
+                stats.received.sum(), stats.received.sum() / seconds);
+        System.out.println("Chat delivery latency: " + stats.delivery.summary());
+        System.out.println("Command round trip:    " + stats.command.summary());
+        System.out.printf("Errors %d, closed by server %d%n", stats.errors.sum(), stats.closed.sum());
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("参数格式应为 key=value: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        try {
+            new LoadGenerator(options).run();
+        } catch (Exception e) {
+            System.err.println("压测失败: " + e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
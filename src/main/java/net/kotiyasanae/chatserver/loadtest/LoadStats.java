@@ -0,0 +1,17 @@
+package net.kotiyasanae.chatserver.loadtest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测过程中各连接共享的计数器
+ */
+final class LoadStats {
+    final LatencyHistogram connect = new LatencyHistogram();
+    final LatencyHistogram delivery = new LatencyHistogram();
+    final LatencyHistogram command = new LatencyHistogram();
+    final LongAdder chatsSent = new LongAdder();
+    final LongAdder commandsSent = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder closed = new LongAdder();
+    final LongAdder errors = new LongAdder();
+}
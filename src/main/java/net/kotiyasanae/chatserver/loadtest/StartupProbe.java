@@ -0,0 +1,218 @@
+package net.kotiyasanae.chatserver.loadtest;
+
+import net.kotiyasanae.chatserver.ChatServer;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 测量服务器冷启动到接受第一个连接的时间，也用作生成 AppCDS 归档的训练负载
+ * <p>
+ * 每次启动一个新的服务器进程，本进程的客户端预先热身，从启动进程起不断尝试连接，
+ * 直到连接可用为止：通常是收到第一帧（欢迎消息），jvmArgs启用加密时是收到服务器公钥。参数为 key=value：
+ * <pre>
+ * classpath=...        服务器进程的类路径，默认与本进程相同；使用 AppCDS 时须为jar
+ * archive=...          AppCDS 归档文件，存在时再用该归档各启动一遍作对比
+ * train=false          训练模式：启动一次，连接后收发几条消息，退出时把加载过的类写入 archive
+ * runs=5               每种配置启动的次数
+ * port=19300           服务器端口
+ * jvmArgs=             服务器进程额外的JVM参数，以逗号分隔
+ * </pre>
+ * 例: gradle startupTime -PstartupArgs="runs=10 jvmArgs=-Dchat.encryption.enabled=true,-Xmx256m"
+ */
+public class StartupProbe {
+    private static final long TIMEOUT_MILLIS = 60_000;
+
+    private final Map<String, String> options;
+    private final WebSocketClient client = new WebSocketClient();
+    // 启用加密时连接要等收到公钥才可用，后台生成密钥的时间也应计入
+    private boolean awaitKey;
+
+    StartupProbe(Map<String, String> options) {
+        this.options = options;
+    }
+
+    private String option(String key, String defaultValue) {
+        String value = options.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    void run() throws Exception {
+        String classpath = option("classpath", System.getProperty("java.class.path"));
+        String archive = option("archive", null);
+        int runs = Integer.parseInt(option("runs", "5"));
+        int port = Integer.parseInt(option("port", "19300"));
+        List<String> jvmArgs = new ArrayList<>();
+        for (String arg : option("jvmArgs", "").split(",")) {
+            if (!arg.trim().isEmpty()) {
+                jvmArgs.add(arg.trim());
+            }
+        }
+
+        awaitKey = jvmArgs.contains("-Dchat.encryption.enabled=true");
+
+        client.start();
+        try {
+            // 客户端自身的类加载不计入服务器的启动时间
+            tryConnect(port);
+
+            if (Boolean.parseBoolean(option("train", "false"))) {
+                if (archive == null) {
+                    throw new IllegalArgumentException("训练模式须指定 archive");
+                }
+                Files.deleteIfExists(Paths.get(archive));
+                List<String> args = new ArrayList<>(jvmArgs);
+                args.add("-XX:ArchiveClassesAtExit=" + archive);
+                long millis = launch(classpath, args, port, true);
+                System.out.printf("训练启动 %dms，归档 %s (%d KB)%n", millis, archive,
+                        Files.size(Paths.get(archive)) / 1024);
+                return;
+            }
+
+            report("无归档", measure(classpath, jvmArgs, port, runs));
+            if (archive != null && Files.exists(Paths.get(archive))) {
+                List<String> args = new ArrayList<>(jvmArgs);
+                args.add("-XX:SharedArchiveFile=" + archive);
+                args.add("-Xshare:auto");
+                report("AppCDS", measure(classpath, args, port, runs));
+            }
+        } finally {
+            client.stop();
+        }
+    }
+
+    private long[] measure(String classpath, List<String> jvmArgs, int port, int runs) throws Exception {
+        long[] results = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            results[i] = launch(classpath, jvmArgs, port, false);
+        }
+        return results;
+    }
+
+    private static void report(String label, long[] millis) {
+        long[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-8s 到第一个连接: 中位数 %dms，最快 %dms，各次 %s%n",
+                label, sorted[sorted.length / 2], sorted[0], Arrays.toString(millis));
+    }
+
+    /**
+     * 启动服务器进程并计时到第一个连接可用，随后正常关闭进程（触发关闭钩子和归档写出）
+     */
+    private long launch(String classpath, List<String> jvmArgs, int port, boolean train) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        Collections.addAll(command, "-cp", classpath, ChatServer.class.getName(), String.valueOf(port));
+        Path log = Files.createTempFile("startup-probe", ".log");
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+
+        long start = System.nanoTime();
+        try {
+            Session session = null;
+            while (session == null) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("服务器进程已退出，输出见 " + log);
+                }
+                if (System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS)) {
+                    throw new TimeoutException("服务器未在" + TIMEOUT_MILLIS + "ms内接受连接，输出见 " + log);
+                }
+                session = tryConnect(port);
+                if (session == null) {
+                    Thread.sleep(5);
+                }
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (train) {
+                exercise(session);
+            }
+            session.close();
+            return millis;
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(log);
+        }
+    }
+
+    /**
+     * @return 已可用（收到第一帧，或启用加密时收到公钥）的会话，服务器尚未就绪时返回null
+     */
+    private Session tryConnect(int port) throws Exception {
+        CompletableFuture<String> ready = new CompletableFuture<>();
+        WebSocketAdapter socket = new WebSocketAdapter() {
+            @Override
+            public void onWebSocketText(String message) {
+                if (!awaitKey || message.contains("\"type\":\"KEY\"")) {
+                    ready.complete(message);
+                }
+            }
+        };
+        try {
+            Session session = client.connect(socket, new URI("ws://127.0.0.1:" + port + "/chat"))
+                    .get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            ready.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return session;
+        } catch (ExecutionException e) {
+            return null; // 端口尚未监听
+        }
+    }
+
+    /**
+     * 训练负载：加入、聊天、执行几条命令，让消息处理路径上的类也进入归档
+     */
+    private static void exercise(Session session) throws Exception {
+        String[] frames = {
+                "{\"type\":\"JOIN\",\"sender\":\"cds-training\"}",
+                "{\"type\":\"CHAT\",\"content\":\"hello\"}",
+                "{\"type\":\"CHAT\",\"content\":\".help\"}",
+                "{\"type\":\"CHAT\",\"content\":\".users\"}",
+                "{\"type\":\"CHAT\",\"content\":\".join training\"}",
+                "{\"type\":\"USER_LIST\"}"
+        };
+        for (String frame : frames) {
+            session.getRemote().sendString(frame);
+        }
+        Thread.sleep(500);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("参数格式应为 key=value: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        try {
+            new StartupProbe(options).run();
+        } catch (Exception e) {
+            System.err.println("启动测量失败: " + e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,125 @@
+package net.kotiyasanae.chatserver.logging;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 把INFO/DEBUG日志放入有界队列，由后台线程写出，调用线程不等待日志I/O
+ * <p>
+ * 参数在写出时才格式化；级别未开启时不入队。队列满时丢弃并计数，不阻塞消息处理。
+ * WARN/ERROR 直接同步写出，保证告警不因队列满而丢失
+ */
+public final class AsyncLogger {
+    private static final Logger summary = LoggerFactory.getLogger(AsyncLogger.class);
+    private static final int MAX_BATCH = 256;
+    private static final long SUMMARY_MILLIS = 10_000;
+    private static final BatchWorker<Event> worker = new BatchWorker<>("async-log",
+            ChatConfig.get().getLogQueueCapacity(), MAX_BATCH, SUMMARY_MILLIS, new Writer());
+
+    private final Logger logger;
+
+    private AsyncLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static AsyncLogger getLogger(Class<?> type) {
+        return new AsyncLogger(LoggerFactory.getLogger(type));
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    public void debug(String format, Object... args) {
+        if (logger.isDebugEnabled()) {
+            worker.offer(new Event(logger, false, format, args));
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (logger.isInfoEnabled()) {
+            worker.offer(new Event(logger, true, format, args));
+        }
+    }
+
+    /**
+     * 高频日志，超出采样器的速率时只计数
+     */
+    public void info(LogSampler sampler, String format, Object... args) {
+        if (logger.isInfoEnabled() && sampler.tryLog()) {
+            worker.offer(new Event(logger, true, format, args));
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        logger.warn(format, args);
+    }
+
+    public void error(String format, Object... args) {
+        logger.error(format, args);
+    }
+
+    /** 因队列已满被丢弃的日志条数 */
+    public static long getDroppedCount() {
+        return worker.getDropped();
+    }
+
+    /** 已写出的日志条数 */
+    public static long getWrittenCount() {
+        return worker.getProcessed();
+    }
+
+    /**
+     * 服务器停止时调用，写出队列中剩余的日志
+     */
+    public static void shutdown() {
+        worker.close(5000);
+    }
+
+    private static final class Event {
+        final Logger logger;
+        final boolean info;
+        final String format;
+        final Object[] args;
+
+        Event(Logger logger, boolean info, String format, Object[] args) {
+            this.logger = logger;
+            this.info = info;
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    private static final class Writer implements BatchWorker.Handler<Event> {
+        private long reportedDropped;
+
+        @Override
+        public void handle(List<Event> batch) {
+            for (Event event : batch) {
+                if (event.info) {
+                    event.logger.info(event.format, event.args);
+                } else {
+                    event.logger.debug(event.format, event.args);
+                }
+            }
+        }
+
+        @Override
+        public void tick() {
+            for (LogSampler sampler : LogSampler.all()) {
+                long suppressed = sampler.takeSuppressed();
+                if (suppressed > 0) {
+                    summary.info("{} log lines sampled out: {}", sampler.getName(), suppressed);
+                }
+            }
+            long dropped = worker.getDropped();
+            if (dropped > reportedDropped) {
+                summary.warn("Async log queue full, {} lines dropped", dropped - reportedDropped);
+                reportedDropped = dropped;
+            }
+        }
+    }
+}
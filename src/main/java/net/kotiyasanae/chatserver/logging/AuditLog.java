@@ -0,0 +1,140 @@
+package net.kotiyasanae.chatserver.logging;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import net.kotiyasanae.chatserver.ChatConfig;
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * 聊天消息审计日志：每行一条消息的JSON（与发给客户端的帧相同），后台线程按批追加写入并刷新
+ * <p>
+ * 房间消息直接复用已编码好的帧，不再重复序列化；私聊记录的 room 为 "@目标用户名"。
+ * 写入队列满时丢弃并计数，不阻塞消息投递。未配置文件时所有方法都不做任何事
+ */
+public class AuditLog {
+    private static final Logger logger = LoggerFactory.getLogger(AuditLog.class);
+    private static final int MAX_BATCH = 1024;
+    private static final long FLUSH_MILLIS = 1000;
+
+    private final Path file;
+    private final OutputStream out;
+    private final BatchWorker<byte[]> worker;
+
+    private AuditLog() {
+        this.file = null;
+        this.out = null;
+        this.worker = null;
+    }
+
+    public AuditLog(Path file, int queueCapacity) throws IOException {
+        this.file = file;
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        this.out = new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE), 64 * 1024);
+        this.worker = new BatchWorker<>("audit-log", queueCapacity, MAX_BATCH, FLUSH_MILLIS,
+                new BatchWorker.Handler<byte[]>() {
+                    @Override
+                    public void handle(List<byte[]> batch) throws IOException {
+                        for (byte[] line : batch) {
+                            out.write(line);
+                            out.write('\n');
+                        }
+                        out.flush();
+                    }
+                });
+    }
+
+    /**
+     * 不记录任何内容的实例
+     */
+    public static AuditLog disabled() {
+        return new AuditLog();
+    }
+
+    /**
+     * 按配置创建；未配置审计文件或文件无法打开时返回不记录的实例
+     */
+    public static AuditLog create(ChatConfig config) {
+        Path file = config.getAuditFile();
+        if (file == null) {
+            return disabled();
+        }
+        try {
+            AuditLog audit = new AuditLog(file, config.getAuditQueueCapacity());
+            logger.info("Audit log: {}", file);
+            return audit;
+        } catch (IOException e) {
+            logger.error("Cannot open audit log {}, auditing disabled: {}", file, e.toString());
+            return disabled();
+        }
+    }
+
+    public boolean isEnabled() {
+        return worker != null;
+    }
+
+    /**
+     * 记录一条已编码的房间消息
+     */
+    public void record(OutboundFrame frame) {
+        if (worker != null) {
+            worker.offer(frame.bytes());
+        }
+    }
+
+    /**
+     * 记录一条私聊
+     */
+    public void recordPrivate(String sender, String target, String content) {
+        if (worker == null) {
+            return;
+        }
+        Message message = new Message(Message.MessageType.CHAT, content, sender);
+        message.setRoom("@" + target);
+        try {
+            worker.offer(MessageCodec.encode(message).bytes());
+        } catch (JsonProcessingException e) {
+            logger.warn("Cannot encode audit record: {}", e.toString());
+        }
+    }
+
+    /** 已写入的记录数 */
+    public long getWrittenCount() {
+        return worker == null ? 0 : worker.getProcessed();
+    }
+
+    /** 因队列已满被丢弃的记录数 */
+    public long getDroppedCount() {
+        return worker == null ? 0 : worker.getDropped();
+    }
+
+    /**
+     * 写完队列中剩余的记录并关闭文件
+     */
+    public void close() {
+        if (worker == null) {
+            return;
+        }
+        worker.close(5000);
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close audit log {}: {}", file, e.toString());
+        }
+        logger.info("Audit log closed, {} records written, {} dropped", getWrittenCount(), getDroppedCount());
+    }
+}
@@ -0,0 +1,152 @@
+package net.kotiyasanae.chatserver.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 有界的多生产者队列 + 单个后台线程，按批取出交给处理函数
+ * <p>
+ * 入队不加锁也不阻塞：队列满时直接丢弃并计数。后台线程空闲时休眠，
+ * 只有它确实在休眠时生产者才唤醒它，繁忙时入队没有额外的通知开销
+ */
+final class BatchWorker<T> {
+    // 直接写出，不经过异步队列
+    private static final Logger logger = LoggerFactory.getLogger(BatchWorker.class);
+
+    interface Handler<T> {
+        /** 处理一批元素，在后台线程中调用 */
+        void handle(List<T> batch) throws Exception;
+
+        /** 至少每个周期调用一次，用于定期汇总或刷新 */
+        default void tick() throws Exception {
+        }
+    }
+
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final int maxBatch;
+    private final long tickNanos;
+    private final Handler<T> handler;
+    private final Thread thread;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    BatchWorker(String name, int capacity, int maxBatch, long tickMillis, Handler<T> handler) {
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.handler = handler;
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return 队列已满或已关闭时返回false，元素被丢弃
+     */
+    boolean offer(T item) {
+        if (closed || size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.offer(item);
+        if (sleeping) {
+            sleeping = false;
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    long getProcessed() {
+        return processed.sum();
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * 停止接收，处理完已入队的元素后返回
+     */
+    void close(long timeoutMillis) {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>(maxBatch);
+        long nextTick = System.nanoTime() + tickNanos;
+        while (true) {
+            T item;
+            while (batch.size() < maxBatch && (item = queue.poll()) != null) {
+                batch.add(item);
+            }
+            boolean worked = !batch.isEmpty();
+            if (worked) {
+                size.addAndGet(-batch.size());
+                invoke(batch);
+                batch.clear();
+            }
+            // 持续繁忙时也要按周期调用tick
+            long now = System.nanoTime();
+            if (now - nextTick >= 0) {
+                invokeTick();
+                nextTick = now + tickNanos;
+            }
+            if (worked) {
+                continue;
+            }
+            if (closed) {
+                if (queue.isEmpty()) {
+                    invokeTick();
+                    return;
+                }
+                continue;
+            }
+            sleeping = true;
+            if (queue.isEmpty()) {
+                LockSupport.parkNanos(this, Math.max(0, nextTick - now));
+            }
+            sleeping = false;
+        }
+    }
+
+    private void invoke(List<T> batch) {
+        try {
+            handler.handle(batch);
+            processed.add(batch.size());
+        } catch (Exception e) {
+            logger.warn("{} failed to process {} items: {}", thread.getName(), batch.size(), e.toString());
+        }
+    }
+
+    private void invokeTick() {
+        try {
+            handler.tick();
+        } catch (Exception e) {
+            logger.warn("{} tick failed: {}", thread.getName(), e.toString());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package net.kotiyasanae.chatserver.logging;
+
+import net.kotiyasanae.chatserver.ratelimit.TokenBucket;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 高频日志的采样：每秒最多输出若干行，超出的只计数，由异步日志线程定期汇总输出被省略的行数
+ */
+public final class LogSampler {
+    private static final List<LogSampler> samplers = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final TokenBucket budget;
+    private final LongAdder suppressed = new LongAdder();
+    // 上次汇总时的省略数，只由日志线程访问
+    private long reported;
+
+    private LogSampler(String name, TokenBucket budget) {
+        this.name = name;
+        this.budget = budget;
+    }
+
+    /**
+     * @param perSecond 每秒最多输出的行数，0表示不采样
+     */
+    public static LogSampler create(String name, double perSecond) {
+        LogSampler sampler = new LogSampler(name,
+                perSecond > 0 ? TokenBucket.perSecond(perSecond, (int) Math.ceil(perSecond)) : null);
+        samplers.add(sampler);
+        return sampler;
+    }
+
+    /**
+     * @return 本行是否应输出；返回false时已计入省略数
+     */
+    public boolean tryLog() {
+        if (budget == null || budget.tryAcquire()) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** 因超出速率被省略的行数 */
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    /**
+     * 自上次调用以来新省略的行数
+     */
+    long takeSuppressed() {
+        long total = suppressed.sum();
+        long delta = total - reported;
+        reported = total;
+        return delta;
+    }
+
+    static List<LogSampler> all() {
+        return samplers;
+    }
+}
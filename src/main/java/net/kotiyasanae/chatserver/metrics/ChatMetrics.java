@@ -0,0 +1,68 @@
+package net.kotiyasanae.chatserver.metrics;
+
+import net.kotiyasanae.chatserver.model.Message;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 聊天服务器的指标，全进程共享一个注册表
+ * <p>
+ * 这里只有在处理路径上直接记录的指标；各组件已有的统计（队列、压缩、限流、集群）
+ * 由 ChatService 启动时以读取函数的形式注册
+ */
+public final class ChatMetrics {
+    private static final MetricsRegistry registry = new MetricsRegistry();
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    public static final Counter framesInText = registry.counter("chat_frames_in_total",
+            "收到的WebSocket消息帧（限流之前）", "protocol", "json");
+    public static final Counter framesInBinary = registry.counter("chat_frames_in_total",
+            "收到的WebSocket消息帧（限流之前）", "protocol", "binary");
+    public static final Counter bytesIn = registry.counter("chat_bytes_in_total",
+            "收到的消息帧负载字节数，文本帧按UTF-8编码计");
+
+    public static final Histogram broadcastLatency = registry.histogram("chat_broadcast_seconds",
+            "一次广播把同一帧放入全部接收者出站队列的耗时，分片投递时到最后一个分片完成为止", Histogram.LATENCY_BUCKETS);
+    public static final Counter broadcastRecipients = registry.counter("chat_broadcast_recipients_total",
+            "广播投递的会话数");
+
+    public static final Histogram commandLatency = registry.histogram("chat_command_seconds",
+            "命令处理耗时", Histogram.LATENCY_BUCKETS);
+
+    private static final Counter[] messages = new Counter[TYPES.length];
+    private static final Map<String, Counter> commands = new ConcurrentHashMap<>();
+
+    static {
+        for (Message.MessageType type : TYPES) {
+            messages[type.ordinal()] = registry.counter("chat_messages_total",
+                    "通过校验并分发处理的入站消息", "type", type.name());
+        }
+    }
+
+    private ChatMetrics() {
+    }
+
+    public static MetricsRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * 某类型入站消息的计数器
+     */
+    public static Counter messages(Message.MessageType type) {
+        return messages[type.ordinal()];
+    }
+
+    /**
+     * 某命令的调用计数器；调用方须把未知命令归为同一个名称，避免标签无限增长
+     */
+    public static Counter command(String name) {
+        Counter counter = commands.get(name);
+        if (counter == null) {
+            counter = commands.computeIfAbsent(name,
+                    n -> registry.counter("chat_commands_total", "执行的命令次数", "command", n));
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,42 @@
+package net.kotiyasanae.chatserver.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 只增计数器，基于分段的LongAdder，多线程同时递增时不争用同一缓存行
+ */
+public final class Counter extends Metric {
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name, String help, String labels) {
+        super(name, help, labels);
+    }
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void add(long n) {
+        value.add(n);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public String getType() {
+        return "counter";
+    }
+
+    @Override
+    void write(StringBuilder out) {
+        writeSample(out, "", null, Long.toString(get()));
+    }
+
+    @Override
+    void collect(Map<String, Object> values) {
+        values.put(key(""), get());
+    }
+}
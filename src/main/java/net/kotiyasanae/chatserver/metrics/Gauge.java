@@ -0,0 +1,40 @@
+package net.kotiyasanae.chatserver.metrics;
+
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 读取时才取值的指标，用于导出各组件已有的统计（在线人数、队列深度、已有的计数器等）
+ */
+public final class Gauge extends Metric {
+    private final String type;
+    private final DoubleSupplier value;
+
+    /**
+     * @param type gauge，或者值本身只增时为counter
+     */
+    Gauge(String name, String help, String labels, String type, DoubleSupplier value) {
+        super(name, help, labels);
+        this.type = type;
+        this.value = value;
+    }
+
+    public double get() {
+        return value.getAsDouble();
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    void write(StringBuilder out) {
+        writeSample(out, "", null, format(get()));
+    }
+
+    @Override
+    void collect(Map<String, Object> values) {
+        values.put(key(""), get());
+    }
+}
@@ -0,0 +1,123 @@
+package net.kotiyasanae.chatserver.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定桶的耗时直方图，记录纳秒，按Prometheus惯例以秒导出
+ * <p>
+ * 每个桶一个LongAdder，记录时只递增所在的一个桶，导出时再累加成Prometheus要求的累积计数
+ */
+public final class Histogram extends Metric {
+    /** 10us ~ 2.5s，适合进程内的处理耗时 */
+    public static final double[] LATENCY_BUCKETS = {
+            0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005,
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5};
+
+    private final double[] bounds;
+    private final long[] boundNanos;
+    // 最后一个为 +Inf
+    private final LongAdder[] counts;
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram(String name, String help, String labels, double[] bounds) {
+        super(name, help, labels);
+        this.bounds = bounds.clone();
+        this.boundNanos = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            boundNanos[i] = (long) (bounds[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        this.counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int i = 0;
+        while (i < boundNanos.length && nanos > boundNanos[i]) {
+            i++;
+        }
+        counts[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * 记录从 startNanos（System.nanoTime()）到现在的耗时
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder c : counts) {
+            count += c.sum();
+        }
+        return count;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+
+    /**
+     * 按桶上界估算分位数（秒），落在 +Inf 桶时返回最大的上界
+     * @param percentile 0~100
+     */
+    public double getValueAtPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long count = 0;
+        for (long c : snapshot) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return bounds[i];
+            }
+        }
+        return bounds[bounds.length - 1];
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    void write(StringBuilder out) {
+        long[] snapshot = snapshot();
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += snapshot[i];
+            writeSample(out, "_bucket", "le=\"" + bounds[i] + "\"", Long.toString(cumulative));
+        }
+        cumulative += snapshot[bounds.length];
+        writeSample(out, "_bucket", "le=\"+Inf\"", Long.toString(cumulative));
+        writeSample(out, "_sum", null, format(getSumSeconds()));
+        writeSample(out, "_count", null, Long.toString(cumulative));
+    }
+
+    @Override
+    void collect(Map<String, Object> values) {
+        values.put(key("_count"), getCount());
+        values.put(key("_sum"), getSumSeconds());
+        values.put(key("_p50"), getValueAtPercentile(50));
+        values.put(key("_p99"), getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,81 @@
+package net.kotiyasanae.chatserver.metrics;
+
+import java.util.Map;
+
+/**
+ * 一个指标序列：名称 + 固定的一组标签
+ */
+public abstract class Metric {
+    private final String name;
+    private final String help;
+    // Prometheus格式的标签，如 protocol="json"，没有标签时为空串
+    private final String labels;
+
+    Metric(String name, String help, String labels) {
+        this.name = name;
+        this.help = help;
+        this.labels = labels;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    public String getLabels() {
+        return labels;
+    }
+
+    /**
+     * Prometheus类型: counter、gauge 或 histogram
+     */
+    public abstract String getType();
+
+    /**
+     * 按Prometheus文本格式写出样本行（不含HELP/TYPE）
+     */
+    abstract void write(StringBuilder out);
+
+    /**
+     * 把当前值放入快照，供JMX读取
+     */
+    abstract void collect(Map<String, Object> values);
+
+    void writeSample(StringBuilder out, String suffix, String extraLabel, String value) {
+        out.append(name).append(suffix);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) {
+                    out.append(',');
+                }
+                out.append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * JMX属性名，如 chat_frames_in_total{protocol=json}
+     */
+    String key(String suffix) {
+        return labels.isEmpty() ? name + suffix : name + suffix + "{" + labels.replace("\"", "") + "}";
+    }
+
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+}
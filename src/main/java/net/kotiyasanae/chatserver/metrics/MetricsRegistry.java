@@ -0,0 +1,123 @@
+package net.kotiyasanae.chatserver.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 指标注册表：同名同标签的指标只注册一次，重复注册返回已有的实例
+ * <p>
+ * 注册只发生在启动和首次遇到新标签值时，记录指标不经过注册表
+ */
+public class MetricsRegistry {
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * @param labels 标签名和值交替排列，如 "protocol", "json"
+     */
+    public Counter counter(String name, String help, String... labels) {
+        String rendered = labels(labels);
+        return register(Counter.class, new Counter(name, help, rendered));
+    }
+
+    /**
+     * 导出一个已有的、只增的计数，读取时调用 value
+     */
+    public Gauge counter(String name, String help, DoubleSupplier value, String... labels) {
+        return register(Gauge.class, new Gauge(name, help, labels(labels), "counter", value));
+    }
+
+    public Gauge gauge(String name, String help, DoubleSupplier value, String... labels) {
+        return register(Gauge.class, new Gauge(name, help, labels(labels), "gauge", value));
+    }
+
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return register(Histogram.class, new Histogram(name, help, labels(labels), buckets));
+    }
+
+    private <T extends Metric> T register(Class<T> kind, T metric) {
+        Metric existing = metrics.putIfAbsent(metric.getName() + "{" + metric.getLabels() + "}", metric);
+        if (existing == null) {
+            return metric;
+        }
+        if (!kind.isInstance(existing) || !existing.getType().equals(metric.getType())) {
+            throw new IllegalArgumentException("Metric " + metric.getName() + " already registered as "
+                    + existing.getType());
+        }
+        return kind.cast(existing);
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 按名称分组，写出Prometheus文本格式（0.0.4）
+     */
+    public String toPrometheus() {
+        Map<String, List<Metric>> families = new TreeMap<>();
+        new TreeMap<>(metrics).values().forEach(metric ->
+                families.computeIfAbsent(metric.getName(), name -> new ArrayList<>()).add(metric));
+
+        StringBuilder out = new StringBuilder(4096);
+        for (List<Metric> family : families.values()) {
+            Metric first = family.get(0);
+            out.append("# HELP ").append(first.getName()).append(' ')
+                    .append(first.getHelp().replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(first.getName()).append(' ').append(first.getType()).append('\n');
+            for (Metric metric : family) {
+                metric.write(out);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * 所有指标当前值，键为带标签的名称，按名称排序
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        new TreeMap<>(metrics).values().forEach(metric -> metric.collect(values));
+        return values;
+    }
+
+    /**
+     * 键为 {@link #snapshot()} 中的名称，值为该指标的说明
+     */
+    public Map<String, String> descriptions() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        Map<String, String> descriptions = new LinkedHashMap<>();
+        new TreeMap<>(metrics).values().forEach(metric -> {
+            values.clear();
+            metric.collect(values);
+            values.keySet().forEach(key -> descriptions.put(key, metric.getHelp()));
+        });
+        return descriptions;
+    }
+}
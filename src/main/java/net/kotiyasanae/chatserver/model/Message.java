@@ -1,21 +1,21 @@
 package net.kotiyasanae.chatserver.model;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-
 public class Message {
     private MessageType type;
     private String content;
     private String sender;
-    private String timestamp;
+    // 毫秒时间戳，只在编码时格式化为文本
+    private long time;
     private String room;
+    // 房间广播的序号，0表示没有
+    private long seq;
 
     public enum MessageType {
-        CHAT, JOIN, LEAVE, SYSTEM, ERROR, USER_LIST
+        CHAT, JOIN, LEAVE, SYSTEM, ERROR, USER_LIST, KEY, RESUME
     }
 
     public Message() {
-        this.timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        this.time = System.currentTimeMillis();
     }
 
     public Message(MessageType type, String content, String sender) {
@@ -35,14 +35,35 @@ public class Message {
     public String getSender() { return sender; }
     public void setSender(String sender) { this.sender = sender; }
 
-    public String getTimestamp() { return timestamp; }
-    public void setTimestamp(String timestamp) { this.timestamp = timestamp; }
+    public long getTime() { return time; }
+    public void setTime(long time) { this.time = time; }
+
+    /**
+     * 线上格式的时间戳 "yyyy-MM-dd HH:mm:ss"
+     */
+    public String getTimestamp() { return Timestamps.format(time); }
+
+    /**
+     * 格式不正确时保留原时间戳
+     */
+    public void setTimestamp(String timestamp) {
+        long parsed = Timestamps.parse(timestamp);
+        if (parsed >= 0) {
+            this.time = parsed;
+        }
+    }
 
     public String getRoom() { return room; }
     public void setRoom(String room) { this.room = room; }
 
+    /**
+     * 房间内单调递增的广播序号，由服务器在广播时分配
+     */
+    public long getSeq() { return seq; }
+    public void setSeq(long seq) { this.seq = seq; }
+
     @Override
     public String toString() {
-        return String.format("[%s] %s: %s", timestamp, sender, content);
+        return String.format("[%s] %s: %s", getTimestamp(), sender, content);
     }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package net.kotiyasanae.chatserver.model;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 消息时间戳与线上文本格式 "yyyy-MM-dd HH:mm:ss" 的互相转换
+ */
+public final class Timestamps {
+    public static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(PATTERN).withZone(ZONE);
+
+    // 同一秒内的消息共享格式化结果
+    private static volatile Formatted last = new Formatted(Long.MIN_VALUE, null);
+
+    private static final class Formatted {
+        final long second;
+        final String text;
+
+        Formatted(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    private Timestamps() {
+    }
+
+    public static String format(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000);
+        Formatted cached = last;
+        if (cached.second == second) {
+            return cached.text;
+        }
+        String text = FORMATTER.format(Instant.ofEpochMilli(epochMillis));
+        last = new Formatted(second, text);
+        return text;
+    }
+
+    /**
+     * @return 格式不正确时返回-1
+     */
+    public static long parse(String text) {
+        if (text == null || text.length() != PATTERN.length()
+                || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return -1;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return -1;
+        }
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second)
+                    .atZone(ZONE).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    private static int digits(String text, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,54 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import net.kotiyasanae.chatserver.model.Message;
+
+/**
+ * 过滤聊天正文：拒绝超长消息，去掉除换行和制表符以外的控制字符
+ */
+public class ContentFilterStage implements MessageStage {
+    private final int maxLength;
+
+    public ContentFilterStage(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public String getName() {
+        return "filter";
+    }
+
+    @Override
+    public boolean process(MessageContext context) {
+        Message message = context.getMessage();
+        String content = message.getContent();
+        if (message.getType() != Message.MessageType.CHAT || content == null) {
+            return true;
+        }
+
+        if (maxLength > 0 && content.length() > maxLength) {
+            context.fail("消息过长，最多" + maxLength + "个字符");
+            return false;
+        }
+
+        int i = 0;
+        while (i < content.length() && !isStripped(content.charAt(i))) {
+            i++;
+        }
+        if (i < content.length()) {
+            StringBuilder sb = new StringBuilder(content.length());
+            sb.append(content, 0, i);
+            for (; i < content.length(); i++) {
+                char c = content.charAt(i);
+                if (!isStripped(c)) {
+                    sb.append(c);
+                }
+            }
+            message.setContent(sb.toString());
+        }
+        return true;
+    }
+
+    private static boolean isStripped(char c) {
+        return Character.isISOControl(c) && c != '\n' && c != '\t';
+    }
+}
@@ -0,0 +1,104 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import net.kotiyasanae.chatserver.encryption.AesSessionKey;
+import net.kotiyasanae.chatserver.encryption.RSAEncryption;
+import net.kotiyasanae.chatserver.model.Message;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 密钥交换与入站消息解密
+ * <p>
+ * 客户端用服务器公钥包装AES会话密钥，以KEY消息发送；之后正文以"[AES]"开头的消息用该会话密钥解密，
+ * 以"[RSA]"开头的消息用服务器私钥解密。
+ */
+public class CryptoStage implements MessageStage {
+    private static final Logger logger = LoggerFactory.getLogger(CryptoStage.class);
+
+    private final RSAEncryption encryption;
+    private final Map<Session, AesSessionKey> sessionKeys = new ConcurrentHashMap<>();
+
+    public CryptoStage(RSAEncryption encryption) {
+        this.encryption = encryption;
+    }
+
+    @Override
+    public String getName() {
+        return "decrypt";
+    }
+
+    @Override
+    public boolean isCpuBound() {
+        return true;
+    }
+
+    @Override
+    public boolean process(MessageContext context) {
+        Message message = context.getMessage();
+        if (message.getType() == Message.MessageType.KEY) {
+            return exchangeKey(context, message);
+        }
+
+        String content = message.getContent();
+        if (content == null) {
+            return true;
+        }
+        boolean aes = content.startsWith(RSAEncryption.AES_PREFIX);
+        if (!aes && !content.startsWith(RSAEncryption.RSA_PREFIX)) {
+            return true; // 明文消息
+        }
+
+        Message decrypted;
+        if (aes) {
+            AesSessionKey key = sessionKeys.get(context.getSession());
+            if (key == null) {
+                context.fail("尚未交换会话密钥");
+                return false;
+            }
+            decrypted = encryption.decryptMessage(message, key);
+        } else {
+            decrypted = encryption.decryptMessage(message);
+        }
+
+        // 解密失败时返回原消息
+        if (decrypted == message) {
+            context.fail("消息解密失败");
+            return false;
+        }
+        context.setMessage(decrypted);
+        return true;
+    }
+
+    private boolean exchangeKey(MessageContext context, Message message) {
+        if (message.getContent() == null) {
+            context.fail("会话密钥不能为空");
+            return false;
+        }
+        try {
+            sessionKeys.put(context.getSession(), encryption.unwrapSessionKey(message.getContent()));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            logger.warn("Session key exchange failed", e);
+            context.fail("会话密钥无效");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void onClose(Session session) {
+        sessionKeys.remove(session);
+    }
+
+    /**
+     * 连接建立时发给客户端的服务器公钥，后台生成密钥期间在生成完成后（生成线程上）完成
+     */
+    public CompletableFuture<String> publicKey() {
+        return encryption.whenReady().thenApply(ignored -> encryption.getPublicKeyString());
+    }
+}
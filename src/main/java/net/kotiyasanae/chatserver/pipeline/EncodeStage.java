@@ -0,0 +1,20 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+
+/**
+ * 把出站消息序列化为共享帧
+ */
+public class EncodeStage implements MessageStage {
+
+    @Override
+    public String getName() {
+        return "encode";
+    }
+
+    @Override
+    public boolean process(MessageContext context) throws Exception {
+        context.setFrame(MessageCodec.encode(context.getMessage()));
+        return true;
+    }
+}
@@ -0,0 +1,30 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 入站消息的执行方式，三种方式下同一会话的消息都按到达顺序处理
+ */
+public enum ExecutionMode {
+    /** 在Jetty I/O线程上直接处理，只有CPU密集型阶段存在时才转到工作线程池 */
+    IO,
+    /** 每个会话一个串行执行器，在固定大小的工作线程池中执行，I/O线程只负责入队 */
+    SERIAL,
+    /** 每个会话一个串行执行器，每批消息在新的虚拟线程上执行；运行时低于JDK 21时不可用 */
+    VIRTUAL;
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器，通过反射调用以便在JDK 17上编译
+     * @return 当前JDK不支持虚拟线程时返回null
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
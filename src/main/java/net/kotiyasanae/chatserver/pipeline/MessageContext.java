@@ -0,0 +1,68 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.model.Message;
+import org.eclipse.jetty.websocket.api.Session;
+
+/**
+ * 一条消息在处理管道中的状态
+ */
+public class MessageContext {
+    private final Session session;
+    private final String raw;
+    private final byte[] binary;
+    private Message message;
+    private OutboundFrame frame;
+    private String error;
+
+    /**
+     * 客户端发来的原始文本
+     */
+    public MessageContext(Session session, String raw) {
+        this.session = session;
+        this.raw = raw;
+        this.binary = null;
+    }
+
+    /**
+     * 客户端发来的二进制帧
+     */
+    public MessageContext(Session session, byte[] binary) {
+        this.session = session;
+        this.raw = null;
+        this.binary = binary;
+    }
+
+    /**
+     * 服务器要发出的消息
+     */
+    public MessageContext(Message message) {
+        this.session = null;
+        this.raw = null;
+        this.binary = null;
+        this.message = message;
+    }
+
+    public Session getSession() { return session; }
+
+    public String getRaw() { return raw; }
+
+    public byte[] getBinary() { return binary; }
+
+    public Message getMessage() { return message; }
+    public void setMessage(Message message) { this.message = message; }
+
+    public OutboundFrame getFrame() { return frame; }
+    public void setFrame(OutboundFrame frame) { this.frame = frame; }
+
+    /**
+     * 标记处理失败，管道停止并把错误信息回复给客户端
+     */
+    public void fail(String error) {
+        this.error = error;
+    }
+
+    public String getError() { return error; }
+
+    public boolean isFailed() { return error != null; }
+}
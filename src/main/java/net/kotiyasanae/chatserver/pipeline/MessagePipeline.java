@@ -0,0 +1,133 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * 按顺序执行的消息处理阶段
+ * <p>
+ * IO模式下没有CPU密集型阶段时整条管道在调用线程上执行；
+ * 有CPU密集型阶段或使用SERIAL/VIRTUAL模式时，每个会话的消息依次提交到该会话的串行执行器，
+ * 在工作线程池中执行，会话内顺序不变。
+ */
+public class MessagePipeline {
+    private static final Logger logger = LoggerFactory.getLogger(MessagePipeline.class);
+
+    private final String name;
+    private final List<MessageStage> stages;
+    private final StageStats[] stats;
+    private final Executor workers;
+    private final boolean async;
+    private final Consumer<MessageContext> errorHandler;
+    private final Map<Session, SerialExecutor> serials = new ConcurrentHashMap<>();
+
+    public MessagePipeline(String name, List<MessageStage> stages, Executor workers,
+                           Consumer<MessageContext> errorHandler) {
+        this(name, stages, ExecutionMode.IO, workers, errorHandler);
+    }
+
+    public MessagePipeline(String name, List<MessageStage> stages, ExecutionMode mode, Executor workers,
+                           Consumer<MessageContext> errorHandler) {
+        this.name = name;
+        this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+        this.stats = new StageStats[stages.size()];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new StageStats(stages.get(i).getName());
+        }
+        this.async = workers != null
+                && (mode != ExecutionMode.IO || stages.stream().anyMatch(MessageStage::isCpuBound));
+        this.workers = workers;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * 提交一条客户端消息
+     */
+    public void submit(MessageContext context) {
+        Session session = context.getSession();
+        if (async && session != null) {
+            serials.computeIfAbsent(session, s -> new SerialExecutor(workers)).execute(() -> run(context));
+        } else {
+            run(context);
+        }
+    }
+
+    /**
+     * 在当前线程上执行整条管道
+     * @return 所有阶段都执行完返回true
+     */
+    public boolean run(MessageContext context) {
+        for (int i = 0; i < stats.length; i++) {
+            MessageStage stage = stages.get(i);
+            long start = System.nanoTime();
+            boolean proceed;
+            boolean failed = false;
+            try {
+                proceed = stage.process(context);
+            } catch (Exception e) {
+                logger.error("{} pipeline stage {} failed: {}", name, stage.getName(), e.toString());
+                proceed = false;
+                failed = true;
+            }
+            stats[i].record(System.nanoTime() - start, failed || context.isFailed());
+
+            if (context.isFailed()) {
+                if (errorHandler != null) {
+                    errorHandler.accept(context);
+                }
+                return false;
+            }
+            if (!proceed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 会话断开：等该会话已提交的消息处理完后释放各阶段状态，再执行onClosed
+     */
+    public void close(Session session, Runnable onClosed) {
+        Runnable task = () -> {
+            for (MessageStage stage : stages) {
+                stage.onClose(session);
+            }
+            onClosed.run();
+        };
+        SerialExecutor serial = serials.remove(session);
+        if (serial != null) {
+            serial.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * 各阶段的耗时统计，按阶段顺序
+     */
+    public Map<String, StageStats> getStageStats() {
+        Map<String, StageStats> result = new LinkedHashMap<>();
+        for (StageStats s : stats) {
+            result.put(s.getName(), s);
+        }
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
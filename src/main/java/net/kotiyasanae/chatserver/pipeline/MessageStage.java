@@ -0,0 +1,52 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+/**
+ * 消息处理管道中的一个阶段
+ */
+public interface MessageStage {
+
+    String getName();
+
+    /**
+     * CPU密集型阶段（如加解密）会让整条管道在工作线程池中执行，避免占用Jetty的I/O线程
+     */
+    default boolean isCpuBound() {
+        return false;
+    }
+
+    /**
+     * 处理消息
+     * @return 继续执行后续阶段返回true，消息已被处理或丢弃返回false
+     */
+    boolean process(MessageContext context) throws Exception;
+
+    /**
+     * 会话断开时释放该阶段为会话保存的状态
+     */
+    default void onClose(Session session) {
+    }
+
+    /**
+     * 用函数创建一个非CPU密集型的阶段
+     */
+    static MessageStage of(String name, Processor processor) {
+        return new MessageStage() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public boolean process(MessageContext context) throws Exception {
+                return processor.process(context);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface Processor {
+        boolean process(MessageContext context) throws Exception;
+    }
+}
@@ -0,0 +1,102 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 在共享线程池上按提交顺序逐个执行任务，用于保证同一会话内的消息顺序
+ */
+public class SerialExecutor implements Executor {
+    private static final Logger logger = LoggerFactory.getLogger(SerialExecutor.class);
+    // 连续执行这么多任务后让出线程，避免一个繁忙的会话长期占用工作线程
+    private static final int MAX_BATCH = 64;
+
+    private final Executor delegate;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running;
+
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            tasks.addLast(task);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        if (!resubmit()) {
+            drain();
+        }
+    }
+
+    /**
+     * 执行队列中的任务，每批之后交回线程池；线程池拒绝时在当前线程上继续。
+     * 任务抛出Error时也要交出或复位running，否则之后提交的任务永远不会执行
+     */
+    private void drain() {
+        boolean handedOff = false;
+        try {
+            do {
+                if (!runBatch()) {
+                    handedOff = true;
+                    return;
+                }
+            } while (!resubmit());
+            handedOff = true;
+        } finally {
+            if (!handedOff && !resubmit()) {
+                synchronized (this) {
+                    running = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 一批执行完后队列中是否还有任务；队列为空时复位running并返回false
+     */
+    private boolean runBatch() {
+        for (int i = 0; i < MAX_BATCH; i++) {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.pollFirst();
+                if (task == null) {
+                    running = false;
+                    return false;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Serial task failed", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把下一批交给线程池
+     * @return 线程池拒绝（已关闭或队列已满）时返回false
+     */
+    private boolean resubmit() {
+        try {
+            delegate.execute(this::drain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.debug("Serial drain rejected, running on caller thread: {}", e.toString());
+            return false;
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return tasks.size();
+    }
+}
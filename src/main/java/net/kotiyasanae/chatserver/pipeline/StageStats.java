@@ -0,0 +1,51 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个阶段的执行次数与耗时统计
+ */
+public class StageStats {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    StageStats(String name) {
+        this.name = name;
+    }
+
+    void record(long nanos, boolean failed) {
+        count.increment();
+        totalNanos.add(nanos);
+        if (failed) {
+            failures.increment();
+        }
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    public String getName() { return name; }
+
+    public long getCount() { return count.sum(); }
+
+    public long getFailures() { return failures.sum(); }
+
+    public long getTotalNanos() { return totalNanos.sum(); }
+
+    public long getMaxNanos() { return maxNanos.get(); }
+
+    public long getAverageNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: count=%d, avg=%dus, max=%dus, failures=%d",
+                name, getCount(), getAverageNanos() / 1000, getMaxNanos() / 1000, getFailures());
+    }
+}
@@ -0,0 +1,46 @@
+package net.kotiyasanae.chatserver.pipeline;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import net.kotiyasanae.chatserver.codec.BinaryCodec;
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+import net.kotiyasanae.chatserver.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 解析客户端发来的JSON或二进制消息并做基本校验
+ */
+public class ValidateStage implements MessageStage {
+    private static final Logger logger = LoggerFactory.getLogger(ValidateStage.class);
+
+    @Override
+    public String getName() {
+        return "validate";
+    }
+
+    @Override
+    public boolean process(MessageContext context) {
+        Message message;
+        try {
+            byte[] binary = context.getBinary();
+            message = binary != null
+                    ? BinaryCodec.decode(binary, 0, binary.length)
+                    : MessageCodec.decode(context.getRaw());
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            logger.error("Message parsing error {}", e.getMessage());
+            context.fail("消息格式错误");
+            return false;
+        }
+
+        if (message == null || message.getType() == null) {
+            context.fail("消息格式错误");
+            return false;
+        }
+        if (message.getType() == Message.MessageType.JOIN && message.getSender() == null) {
+            context.fail("用户名不能为空且不能超过20个字符");
+            return false;
+        }
+        context.setMessage(message);
+        return true;
+    }
+}
@@ -0,0 +1,283 @@
+package net.kotiyasanae.chatserver.ratelimit;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+import net.kotiyasanae.chatserver.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 连接准入控制，在 WebSocket 升级时决定是否接受新连接
+ * <p>
+ * 依次检查：过载降级、全局连接上限、单个地址的连接上限、新建连接速率。
+ * 过载按最近一个采样周期的平均广播耗时和出站队列中的帧数判断，超过任一阈值时拒绝所有新连接，
+ * 直到下一个周期两项都回落；采样在升级请求中顺带进行，不需要后台线程。
+ * 宁可拒绝新连接，也不拖慢已有的连接
+ * <p>
+ * 准入后升级仍可能失败，连接永远不会建立也就不会关闭。这类名额同样在升级请求中顺带回收：
+ * 超过连接超时仍未 {@link Ticket#connect()} 的名额被归还
+ */
+public class AdmissionControl {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+    private static final long SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 准入结果
+     */
+    public enum Decision {
+        ADMITTED, OVERLOADED, GLOBAL_LIMIT, ADDRESS_LIMIT, RATE_LIMIT
+    }
+
+    private static final Decision[] DECISIONS = Decision.values();
+
+    private final int maxConnections;
+    private final int maxPerAddress;
+    private final TokenBucket rate;
+    private final long shedBroadcastNanos;
+    private final long shedQueuedFrames;
+    private final Histogram broadcastLatency;
+    private final LongSupplier queuedFrames;
+    private final long connectTimeoutNanos;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, Integer> addresses = new ConcurrentHashMap<>();
+    private final LongAdder[] decisions = new LongAdder[DECISIONS.length];
+    // 已准入、尚未建立连接的名额，按准入顺序排列
+    private final ConcurrentLinkedQueue<Ticket> pending = new ConcurrentLinkedQueue<>();
+
+    // 过载采样，只由赢得CAS的线程更新
+    private final AtomicLong nextSample = new AtomicLong(System.nanoTime());
+    private long sampledCount;
+    private double sampledSumSeconds;
+    private volatile boolean overloaded;
+
+    /**
+     * @param maxConnections     全局连接上限，0表示不限制
+     * @param maxPerAddress      同一来源地址的连接上限，0表示不限制
+     * @param rate               每秒新建连接数，0表示不限制
+     * @param shedBroadcastMillis 平均广播耗时超过该值时拒绝新连接，0表示不按广播耗时降级
+     * @param shedQueuedFrames   出站队列中的帧总数超过该值时拒绝新连接，0表示不按队列降级
+     * @param connectTimeoutMillis 准入后在该时间内未建立连接的名额被归还
+     */
+    public AdmissionControl(int maxConnections, int maxPerAddress, double rate, int burst,
+                            double shedBroadcastMillis, long shedQueuedFrames, long connectTimeoutMillis,
+                            Histogram broadcastLatency, LongSupplier queuedFrames) {
+        this.maxConnections = maxConnections;
+        this.maxPerAddress = maxPerAddress;
+        this.rate = rate > 0 ? TokenBucket.perSecond(rate, burst) : null;
+        this.shedBroadcastNanos = (long) (shedBroadcastMillis * 1_000_000);
+        this.shedQueuedFrames = shedQueuedFrames;
+        this.broadcastLatency = broadcastLatency;
+        this.queuedFrames = queuedFrames;
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        for (int i = 0; i < decisions.length; i++) {
+            decisions[i] = new LongAdder();
+        }
+        if (broadcastLatency != null) {
+            sampledCount = broadcastLatency.getCount();
+            sampledSumSeconds = broadcastLatency.getSumSeconds();
+        }
+    }
+
+    public static AdmissionControl create(ChatConfig config, Histogram broadcastLatency, LongSupplier queuedFrames) {
+        return new AdmissionControl(config.getAdmissionMaxConnections(), config.getAdmissionMaxPerAddress(),
+                config.getAdmissionRate(), config.getAdmissionBurst(),
+                config.getAdmissionShedBroadcastMillis(), config.getAdmissionShedQueuedFrames(),
+                config.getAdmissionConnectTimeoutMillis(), broadcastLatency, queuedFrames);
+    }
+
+    /**
+     * 升级请求到达时调用；准入时须在连接建立时调用返回值的 {@link Ticket#connect()}，
+     * 在连接关闭时调用 {@link Ticket#close()}
+     * @param address 来源地址，为null时不检查地址上限
+     */
+    public Ticket tryAdmit(InetAddress address) {
+        expirePending();
+        Decision decision = admit(address);
+        decisions[decision.ordinal()].increment();
+        Ticket ticket = new Ticket(address, decision, System.nanoTime());
+        if (ticket.isAdmitted()) {
+            pending.add(ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * 从队头回收超时未建立连接的名额；已连接或已关闭的名额直接出队，遇到未超时的即停止
+     */
+    private void expirePending() {
+        long now = System.nanoTime();
+        Ticket head;
+        while ((head = pending.peek()) != null) {
+            if (!head.isPending()) {
+                pending.remove(head);
+            } else if (now - head.admittedNanos >= connectTimeoutNanos) {
+                pending.remove(head);
+                if (head.expire()) {
+                    logger.debug("Released admission for {}: upgrade never connected", head.address);
+                }
+            } else {
+                break;
+            }
+        }
+    }
+
+    private Decision admit(InetAddress address) {
+        if (isOverloaded()) {
+            return Decision.OVERLOADED;
+        }
+        int total = connections.incrementAndGet();
+        if (maxConnections > 0 && total > maxConnections) {
+            connections.decrementAndGet();
+            return Decision.GLOBAL_LIMIT;
+        }
+        boolean counted = false;
+        if (address != null && maxPerAddress > 0) {
+            boolean[] accepted = new boolean[1];
+            addresses.compute(address, (key, count) -> {
+                int current = count == null ? 0 : count;
+                if (current >= maxPerAddress) {
+                    return count;
+                }
+                accepted[0] = true;
+                return current + 1;
+            });
+            if (!accepted[0]) {
+                release(null);
+                return Decision.ADDRESS_LIMIT;
+            }
+            counted = true;
+        }
+        // 速率放在最后检查，被上限拒绝的请求不消耗令牌
+        if (rate != null && !rate.tryAcquire()) {
+            release(counted ? address : null);
+            return Decision.RATE_LIMIT;
+        }
+        return Decision.ADMITTED;
+    }
+
+    private void release(InetAddress address) {
+        connections.decrementAndGet();
+        if (address != null && maxPerAddress > 0) {
+            addresses.computeIfPresent(address, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * 每个采样周期最多重新判断一次是否过载
+     */
+    public boolean isOverloaded() {
+        if (shedBroadcastNanos <= 0 && shedQueuedFrames <= 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long next = nextSample.get();
+        if (now - next >= 0 && nextSample.compareAndSet(next, now + SAMPLE_NANOS)) {
+            sample();
+        }
+        return overloaded;
+    }
+
+    private void sample() {
+        long meanNanos = 0;
+        if (broadcastLatency != null) {
+            long count = broadcastLatency.getCount();
+            double sum = broadcastLatency.getSumSeconds();
+            if (count > sampledCount) {
+                meanNanos = (long) ((sum - sampledSumSeconds) / (count - sampledCount) * 1e9);
+            }
+            sampledCount = count;
+            sampledSumSeconds = sum;
+        }
+        long queued = queuedFrames != null ? queuedFrames.getAsLong() : 0;
+        boolean shed = (shedBroadcastNanos > 0 && meanNanos > shedBroadcastNanos)
+                || (shedQueuedFrames > 0 && queued > shedQueuedFrames);
+        if (shed != overloaded) {
+            overloaded = shed;
+            if (shed) {
+                logger.warn("Shedding new connections: broadcast {}us, {} frames queued",
+                        TimeUnit.NANOSECONDS.toMicros(meanNanos), queued);
+            } else {
+                logger.info("Accepting new connections again: broadcast {}us, {} frames queued",
+                        TimeUnit.NANOSECONDS.toMicros(meanNanos), queued);
+            }
+        }
+    }
+
+    /** 已准入且尚未关闭的连接数 */
+    public int getConnectionCount() {
+        expirePending();
+        return connections.get();
+    }
+
+    /** 某种结果的累计次数 */
+    public long getCount(Decision decision) {
+        return decisions[decision.ordinal()].sum();
+    }
+
+    /**
+     * 一次准入判断的结果；准入时占用一个名额，连接关闭或超时未连接时归还
+     */
+    public final class Ticket {
+        private final InetAddress address;
+        private final Decision decision;
+        private final long admittedNanos;
+        private boolean connected;
+        private boolean closed;
+
+        private Ticket(InetAddress address, Decision decision, long admittedNanos) {
+            this.address = address;
+            this.decision = decision;
+            this.admittedNanos = admittedNanos;
+        }
+
+        public boolean isAdmitted() {
+            return decision == Decision.ADMITTED;
+        }
+
+        public Decision getDecision() {
+            return decision;
+        }
+
+        /**
+         * 连接建立时调用
+         * @return 名额是否仍然有效；已因超时被归还时返回false，调用方应关闭连接
+         */
+        public synchronized boolean connect() {
+            if (!isAdmitted() || closed) {
+                return false;
+            }
+            connected = true;
+            return true;
+        }
+
+        private synchronized boolean isPending() {
+            return !connected && !closed;
+        }
+
+        /** 超时仍未连接时归还名额，与 {@link #close()} 互斥且只归还一次 */
+        private synchronized boolean expire() {
+            if (!isPending()) {
+                return false;
+            }
+            close();
+            return true;
+        }
+
+        /** 连接关闭时归还名额，未准入或重复调用时无效 */
+        public synchronized void close() {
+            if (isAdmitted() && !closed) {
+                closed = true;
+                release(address);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package net.kotiyasanae.chatserver.ratelimit;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 入站消息限流：每个连接和每个来源地址各有一组令牌桶，聊天消息与命令分开计数
+ * <p>
+ * 一条消息须同时通过连接和地址两级的桶；检查只做CAS，不加锁，
+ * 地址表只在连接建立和关闭时更新，最后一个连接关闭后移除该地址的桶
+ */
+public class RateLimiter {
+    public enum Kind { CHAT, COMMAND }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final long[] intervals = new long[KINDS.length];
+    private final int[] bursts = new int[KINDS.length];
+    private final int addressFactor;
+    private final ConcurrentHashMap<InetAddress, Address> addresses = new ConcurrentHashMap<>();
+
+    private final LongAdder[] allowed = adders();
+    private final LongAdder[] rejectedBySession = adders();
+    private final LongAdder[] rejectedByAddress = adders();
+
+    /**
+     * @param chatRate      每个连接每秒的聊天消息数，0表示不限制
+     * @param commandRate   每个连接每秒的命令数，0表示不限制
+     * @param addressFactor 同一地址的额度为单个连接的多少倍，0表示不按地址限制
+     */
+    public RateLimiter(double chatRate, int chatBurst, double commandRate, int commandBurst, int addressFactor) {
+        setLimit(Kind.CHAT, chatRate, chatBurst);
+        setLimit(Kind.COMMAND, commandRate, commandBurst);
+        this.addressFactor = addressFactor;
+    }
+
+    public static RateLimiter create(ChatConfig config) {
+        return new RateLimiter(config.getChatRate(), config.getChatBurst(),
+                config.getCommandRate(), config.getCommandBurst(), config.getRateLimitAddressFactor());
+    }
+
+    private void setLimit(Kind kind, double rate, int burst) {
+        if (rate > 0) {
+            intervals[kind.ordinal()] = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            bursts[kind.ordinal()] = Math.max(1, burst);
+        }
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[KINDS.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private TokenBucket[] newBuckets(int factor) {
+        TokenBucket[] buckets = new TokenBucket[KINDS.length];
+        for (int i = 0; i < buckets.length; i++) {
+            if (intervals[i] > 0) {
+                buckets[i] = new TokenBucket(Math.max(1, intervals[i] / factor), bursts[i] * factor);
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * 连接建立时调用，关闭时必须调用返回值的 {@link Quota#close()}
+     * @param address 来源地址，为null时只按连接限流
+     */
+    public Quota open(InetAddress address) {
+        Address shared = null;
+        if (address != null && addressFactor > 0) {
+            shared = addresses.compute(address, (key, existing) -> {
+                Address entry = existing != null ? existing : new Address(newBuckets(addressFactor));
+                entry.refs++;
+                return entry;
+            });
+        }
+        return new Quota(address, shared);
+    }
+
+    /** 当前有活动连接的来源地址数 */
+    public int getAddressCount() {
+        return addresses.size();
+    }
+
+    /** 放行的消息数 */
+    public long getAllowed(Kind kind) {
+        return allowed[kind.ordinal()].sum();
+    }
+
+    /** 超出单个连接额度被拒绝的消息数 */
+    public long getRejectedBySession(Kind kind) {
+        return rejectedBySession[kind.ordinal()].sum();
+    }
+
+    /** 超出来源地址额度被拒绝的消息数 */
+    public long getRejectedByAddress(Kind kind) {
+        return rejectedByAddress[kind.ordinal()].sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Kind kind : KINDS) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(kind.name().toLowerCase()).append(": allowed=").append(getAllowed(kind))
+                    .append(", rejected(session)=").append(getRejectedBySession(kind))
+                    .append(", rejected(address)=").append(getRejectedByAddress(kind));
+        }
+        return sb.toString();
+    }
+
+    private static final class Address {
+        final TokenBucket[] buckets;
+        int refs;
+
+        Address(TokenBucket[] buckets) {
+            this.buckets = buckets;
+        }
+    }
+
+    /**
+     * 单个连接的限流额度
+     */
+    public final class Quota {
+        private final InetAddress address;
+        private final Address shared;
+        private final TokenBucket[] buckets = newBuckets(1);
+
+        private Quota(InetAddress address, Address shared) {
+            this.address = address;
+            this.shared = shared;
+        }
+
+        /**
+         * 先扣连接的令牌，再扣地址的令牌
+         * @return false表示超出额度，消息应丢弃
+         */
+        public boolean tryAcquire(Kind kind) {
+            int i = kind.ordinal();
+            long now = System.nanoTime();
+            TokenBucket bucket = buckets[i];
+            if (bucket != null && !bucket.tryAcquire(now)) {
+                rejectedBySession[i].increment();
+                return false;
+            }
+            if (shared != null && shared.buckets[i] != null && !shared.buckets[i].tryAcquire(now)) {
+                rejectedByAddress[i].increment();
+                return false;
+            }
+            allowed[i].increment();
+            return true;
+        }
+
+        public void close() {
+            if (shared != null) {
+                addresses.computeIfPresent(address, (key, entry) -> --entry.refs > 0 ? entry : null);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package net.kotiyasanae.chatserver.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶，按GCRA实现：只保存“理论到达时间”一个值，用CAS更新，不需要后台补充令牌
+ * <p>
+ * 每个请求把理论到达时间推后一个间隔，超出当前时间不多于 burst 个间隔时放行
+ */
+public final class TokenBucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong arrival;
+
+    /**
+     * @param interval 每个令牌的生成间隔（纳秒）
+     * @param burst    桶容量，空闲后最多可连续通过的请求数
+     */
+    TokenBucket(long interval, int burst) {
+        this.intervalNanos = interval;
+        this.toleranceNanos = interval * burst;
+        this.arrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @param rate  每秒生成的令牌数，须大于0
+     * @param burst 桶容量
+     */
+    public static TokenBucket perSecond(double rate, int burst) {
+        return new TokenBucket(Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate)), Math.max(1, burst));
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long now) {
+        while (true) {
+            long current = arrival.get();
+            long next = (current - now > 0 ? current : now) + intervalNanos;
+            if (next - now > toleranceNanos) {
+                return false;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
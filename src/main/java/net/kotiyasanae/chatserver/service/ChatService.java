@@ -1,72 +1,332 @@
 package net.kotiyasanae.chatserver.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import net.kotiyasanae.chatserver.ChatConfig;
 import net.kotiyasanae.chatserver.ChatServer;
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.encryption.RSAEncryption;
+import net.kotiyasanae.chatserver.heartbeat.HeartbeatMonitor;
+import net.kotiyasanae.chatserver.history.MessageLog;
+import net.kotiyasanae.chatserver.logging.AsyncLogger;
+import net.kotiyasanae.chatserver.logging.AuditLog;
+import net.kotiyasanae.chatserver.logging.LogSampler;
+import net.kotiyasanae.chatserver.metrics.ChatMetrics;
+import net.kotiyasanae.chatserver.metrics.MetricsRegistry;
 import net.kotiyasanae.chatserver.model.Message;
+import net.kotiyasanae.chatserver.pipeline.ContentFilterStage;
+import net.kotiyasanae.chatserver.pipeline.CryptoStage;
+import net.kotiyasanae.chatserver.pipeline.ExecutionMode;
+import net.kotiyasanae.chatserver.pipeline.MessageContext;
+import net.kotiyasanae.chatserver.pipeline.MessagePipeline;
+import net.kotiyasanae.chatserver.pipeline.MessageStage;
+import net.kotiyasanae.chatserver.pipeline.StageStats;
+import net.kotiyasanae.chatserver.pipeline.ValidateStage;
+import net.kotiyasanae.chatserver.ratelimit.AdmissionControl;
+import net.kotiyasanae.chatserver.ratelimit.RateLimiter;
+import net.kotiyasanae.chatserver.websocket.CompressionStats;
+import net.kotiyasanae.chatserver.websocket.SessionOutbox;
 import org.eclipse.jetty.websocket.api.Session;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatService {
-    private static final Logger logger = LoggerFactory.getLogger(ChatServer.class);
-    private static final Map<Session, String> userSessions = new ConcurrentHashMap<>();
-    private static final ObjectMapper mapper = new ObjectMapper();
-    private final CommandService commandService;
+    private static final AsyncLogger logger = AsyncLogger.getLogger(ChatServer.class);
+    private static final LogSampler chatLog = LogSampler.create("chat", ChatConfig.get().getLogSampleRate());
+    private static final AuditLog audit = AuditLog.create(ChatConfig.get());
+    private static final UserRegistry users = new UserRegistry();
+    private static final MessageDispatcher dispatcher = MessageDispatcher.create(ChatConfig.get());
+    private static final RoomRegistry rooms = new RoomRegistry();
+    private static final PresenceService presence = new PresenceService(
+            users, dispatcher, ChatConfig.get().getPresenceWindowMillis());
+    private static final HistoryService history = HistoryService.create(ChatConfig.get(), dispatcher);
+    private static final ClusterService cluster = ClusterService.create(
+            ChatConfig.get(), users, rooms, history, dispatcher, presence);
+    private static final CommandService commandService = new CommandService(
+            users, rooms, history, dispatcher, cluster, audit);
 
-    public ChatService() {
-        this.commandService = new CommandService(userSessions);
+    // 启用加密或非IO执行模式时，入站消息在工作线程池中执行
+    private static final CryptoStage crypto = ChatConfig.get().isEncryptionEnabled()
+            ? new CryptoStage(RSAEncryption.create(ChatConfig.get().getEncryptionKeyFile())) : null;
+    private static final ExecutionMode executionMode = ChatConfig.get().getExecutionMode();
+    private static final ExecutorService pipelineWorkers = newWorkerPool();
+    private static final MessagePipeline inbound = createInboundPipeline();
+    private static final RateLimiter rateLimiter = RateLimiter.create(ChatConfig.get());
+    private static final AdmissionControl admission = AdmissionControl.create(
+            ChatConfig.get(), ChatMetrics.broadcastLatency, SessionOutbox::totalDepth);
+    private static final HeartbeatMonitor heartbeat = HeartbeatMonitor.create(ChatConfig.get(), ChatService::evict);
+    private static final ResumeService resumes = ResumeService.create(ChatConfig.get(), ChatService::releaseParked);
+
+    private static ExecutorService newWorkerPool() {
+        if (executionMode == ExecutionMode.IO && crypto == null) {
+            return null;
+        }
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            ExecutorService virtual = ExecutionMode.newVirtualThreadExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+            logger.warn("Virtual threads require JDK 21+, using SERIAL execution on a worker pool");
+        }
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, ChatConfig.get().getPipelineWorkers()), r -> {
+            Thread thread = new Thread(r, "pipeline-worker-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 入站管道: 校验 -> 解密 -> 过滤 -> 分发（命令/聊天/加入）
+     */
+    private static MessagePipeline createInboundPipeline() {
+        List<MessageStage> stages = new ArrayList<>();
+        stages.add(new ValidateStage());
+        if (crypto != null) {
+            stages.add(crypto);
+        }
+        stages.add(new ContentFilterStage(ChatConfig.get().getMaxMessageLength()));
+        stages.add(MessageStage.of("dispatch", context -> {
+            dispatch(context.getSession(), context.getMessage());
+            return true;
+        }));
+        return new MessagePipeline("inbound", stages, executionMode, pipelineWorkers, context -> {
+            Message errorMsg = new Message(Message.MessageType.ERROR, context.getError(), "系统");
+            sendMessage(context.getSession(), errorMsg);
+        });
+    }
+
+    /**
+     * 服务器启动时调用，集群模式下开始监听并连接其他节点
+     */
+    public static void start() throws IOException {
+        logger.info("Message execution mode: {}, inbound {}", executionMode,
+                inbound.isAsync() ? "offloaded from I/O threads" : "on I/O threads");
+        registerMetrics();
+        cluster.start();
+    }
+
+    /**
+     * 把各组件已有的统计注册为读取时取值的指标
+     */
+    private static void registerMetrics() {
+        MetricsRegistry registry = ChatMetrics.registry();
+        registry.gauge("chat_sessions", "打开的WebSocket连接数", dispatcher::getSessionCount);
+        registry.gauge("chat_online_users", "本节点已加入聊天的用户数", users::size);
+        registry.gauge("chat_remote_users", "其他节点上的在线用户数", () -> cluster.remoteUsernames().size());
+
+        registry.counter("chat_frames_out_total", "写出成功的帧", SessionOutbox::totalSent);
+        registry.counter("chat_send_failures_total", "写出失败的帧，失败后该连接的队列被关闭", SessionOutbox::totalFailed);
+        registry.counter("chat_outbox_dropped_total", "出站队列溢出时丢弃或合并掉的帧", SessionOutbox::totalDropped);
+        registry.counter("chat_outbox_disconnects_total", "出站队列溢出被断开的连接", SessionOutbox::totalDisconnected);
+        registry.gauge("chat_outbox_queued_frames", "所有出站队列中等待写出的帧", SessionOutbox::totalDepth);
+        FanoutShards shards = dispatcher.getShards();
+        if (shards != null) {
+            registry.gauge("chat_fanout_pending_batches", "等待分片线程投递的批次", shards::getPendingCount);
+        }
+
+        registry.counter("chat_compression_frames_total", "permessage-deflate处理的帧",
+                CompressionStats::totalCompressedFrames, "result", "compressed");
+        registry.counter("chat_compression_frames_total", "permessage-deflate处理的帧",
+                CompressionStats::totalSkippedFrames, "result", "skipped");
+        registry.counter("chat_compression_bytes_total", "压缩前后的字节数",
+                CompressionStats::totalBytesIn, "direction", "in");
+        registry.counter("chat_compression_bytes_total", "压缩前后的字节数",
+                CompressionStats::totalBytesOut, "direction", "out");
+        registry.counter("chat_compression_seconds_total", "压缩耗时",
+                () -> CompressionStats.totalCompressNanos() / 1e9);
+
+        getStageStats().forEach((stage, stats) -> {
+            registry.counter("chat_stage_calls_total", "管道阶段执行次数", stats::getCount, "stage", stage);
+            registry.counter("chat_stage_failures_total", "管道阶段失败次数", stats::getFailures, "stage", stage);
+            registry.counter("chat_stage_seconds_total", "管道阶段累计耗时",
+                    () -> stats.getTotalNanos() / 1e9, "stage", stage);
+            registry.gauge("chat_stage_max_seconds", "管道阶段单次最大耗时",
+                    () -> stats.getMaxNanos() / 1e9, "stage", stage);
+        });
+
+        for (RateLimiter.Kind kind : RateLimiter.Kind.values()) {
+            String name = kind.name().toLowerCase();
+            registry.counter("chat_ratelimit_allowed_total", "通过限流的入站消息",
+                    () -> rateLimiter.getAllowed(kind), "kind", name);
+            registry.counter("chat_ratelimit_rejected_total", "超出限流额度被丢弃的入站消息",
+                    () -> rateLimiter.getRejectedBySession(kind), "kind", name, "scope", "session");
+            registry.counter("chat_ratelimit_rejected_total", "超出限流额度被丢弃的入站消息",
+                    () -> rateLimiter.getRejectedByAddress(kind), "kind", name, "scope", "address");
+        }
+        registry.gauge("chat_ratelimit_addresses", "有活动连接的来源地址数", rateLimiter::getAddressCount);
+
+        for (AdmissionControl.Decision decision : AdmissionControl.Decision.values()) {
+            registry.counter("chat_admission_total", "WebSocket升级请求的准入结果",
+                    () -> admission.getCount(decision), "result", decision.name().toLowerCase());
+        }
+        registry.gauge("chat_admission_connections", "已准入尚未关闭的连接", admission::getConnectionCount);
+
+        registry.gauge("chat_heartbeat_sessions", "心跳监视中的连接数", heartbeat::getMonitoredCount);
+        registry.counter("chat_heartbeat_pings_total", "发送的心跳ping", heartbeat::getPingCount);
+        registry.counter("chat_heartbeat_evicted_total", "心跳超时被驱逐的连接", heartbeat::getEvictedCount);
+        registry.counter("chat_heartbeat_evict_batches_total", "驱逐的批次数", heartbeat::getBatchCount);
+
+        registry.gauge("chat_resume_parked_sessions", "异常断开后等待恢复的会话", resumes::getParkedCount);
+        registry.counter("chat_resume_total", "会话恢复", resumes::getResumedCount, "result", "resumed");
+        registry.counter("chat_resume_total", "会话恢复", resumes::getRejectedCount, "result", "rejected");
+        registry.counter("chat_resume_total", "会话恢复", resumes::getExpiredCount, "result", "expired");
+
+        registry.gauge("chat_cluster_peers_connected", "已连接的其他集群节点", cluster::getConnectedPeers);
+        registry.counter("chat_cluster_dropped_total", "集群总线丢弃的消息", cluster::getDroppedCount);
+
+        registry.counter("chat_log_dropped_total", "异步日志队列已满被丢弃的日志", AsyncLogger::getDroppedCount);
+        registry.counter("chat_log_sampled_out_total", "超出采样速率未输出的聊天日志", chatLog::getSuppressed,
+                "category", chatLog.getName());
+        registry.counter("chat_audit_written_total", "写入审计日志的记录", audit::getWrittenCount);
+        registry.counter("chat_audit_dropped_total", "审计队列已满被丢弃的记录", audit::getDroppedCount);
+
+        MessageLog log = history.getLog();
+        if (log != null) {
+            registry.counter("chat_history_appended_bytes_total", "写入消息日志的字节数", log::getAppendedBytes);
+            registry.counter("chat_history_dropped_total", "写盘队列已满被丢弃的历史记录", log::getDroppedCount);
+        }
     }
 
     public void handleConnect(Session session) throws IOException {
-        logger.info("New connection: " + session.getRemoteAddress().getAddress());
+        logger.info("New connection: {}", session.getRemoteAddress().getAddress());
+        dispatcher.open(session);
 
         Message welcomeMsg = new Message(Message.MessageType.SYSTEM,
                 "欢迎来到聊天室! 输入 .help 查看可用命令", "系统");
         sendMessage(session, welcomeMsg);
+
+        if (crypto != null) {
+            // 后台生成密钥期间不占住I/O线程，密钥就绪后再发送公钥
+            crypto.publicKey().whenComplete((key, error) -> {
+                if (error != null) {
+                    logger.error("RSA key unavailable: {}", error.toString());
+                } else if (session.isOpen()) {
+                    sendMessage(session, new Message(Message.MessageType.KEY, key, "系统"));
+                }
+            });
+        }
     }
 
-    public void handleDisconnect(Session session) {
-        String username = userSessions.get(session);
-        if (username != null) {
-            userSessions.remove(session);
+    /**
+     * @param resumable 异常断开，持有恢复令牌的用户在宽限期内保留用户名和房间
+     */
+    public void handleDisconnect(Session session, boolean resumable) {
+        disconnect(Collections.singletonList(session), resumable);
+    }
 
-            Message leaveMsg = new Message(Message.MessageType.LEAVE,
-                    username + " 离开了聊天室", "系统");
-            broadcastMessage(leaveMsg, session);
+    /**
+     * 心跳超时的连接：先按异常断开处理，再强制关闭底层连接。
+     * 随后Jetty触发的onClose再次调用handleDisconnect时已无事可做
+     */
+    private static void evict(List<Session> sessions) {
+        disconnect(sessions, true);
+        for (Session session : sessions) {
+            try {
+                session.disconnect();
+            } catch (IOException e) {
+                logger.debug("Disconnect failed for {}: {}", session.getRemoteAddress(), e);
+            }
+        }
+    }
 
-            logger.info(username + " left the chat");
-            updateOnlineUsers();
+    /**
+     * 清理一批断开的连接，全部清理完后每个房间只广播一条离开通知，在线状态合并为一帧增量。
+     * 可恢复的会话只挂起，不释放也不通知
+     */
+    private static void disconnect(List<Session> sessions, boolean resumable) {
+        DisconnectBatch batch = new DisconnectBatch(sessions.size());
+        for (Session session : sessions) {
+            SessionOutbox outbox = dispatcher.close(session);
+            CompressionStats compression = CompressionStats.of(session);
+            if (compression != null) {
+                logger.debug("Compression for {}: {}", session.getRemoteAddress(), compression);
+            }
+            // 等该会话已提交的消息处理完再清理，避免迟到的JOIN重新占用用户名
+            // 持有生命周期锁清理，正在完成的加入（可能在集群总线线程上）结束后才清理
+            inbound.close(session, () -> {
+                if (outbox == null) {
+                    cleanUp(session, resumable, batch);
+                } else {
+                    synchronized (outbox.getLifecycleLock()) {
+                        cleanUp(session, resumable, batch);
+                    }
+                }
+            });
         }
     }
 
-    public void handleMessage(Session session, String messageStr) throws IOException {
-        try {
-            Message message = mapper.readValue(messageStr, Message.class);
+    private static void cleanUp(Session session, boolean resumable, DisconnectBatch batch) {
+        if (resumes.park(session, resumable)) {
+            batch.add(null, Collections.emptyList());
+            return;
+        }
+        String username = users.release(session);
+        batch.add(username, username != null ? rooms.leaveAll(session) : Collections.emptyList());
+    }
 
-            switch (message.getType()) {
-                case JOIN:
-                    handleJoin(session, message);
-                    break;
-                case CHAT:
-                    handleChat(session, message);
-                    break;
-                default:
-                    logger.error("Unknown message type: " + message.getType());
-            }
-        } catch (JsonProcessingException e) {
-            logger.error("Message parsing error " + e.getMessage());
-            Message errorMsg = new Message(Message.MessageType.ERROR,
-                    "消息格式错误", "系统");
-            sendMessage(session, errorMsg);
+    /**
+     * 宽限期内没有恢复的挂起会话，按断开处理
+     */
+    private static void releaseParked(List<Session> sessions) {
+        DisconnectBatch batch = new DisconnectBatch(sessions.size());
+        for (Session session : sessions) {
+            String username = users.release(session);
+            batch.add(username, username != null ? rooms.leaveAll(session) : Collections.emptyList());
+        }
+    }
+
+    public void handleMessage(Session session, String messageStr) {
+        inbound.submit(new MessageContext(session, messageStr));
+    }
+
+    public void handleBinaryMessage(Session session, byte[] payload) {
+        inbound.submit(new MessageContext(session, payload));
+    }
+
+    /**
+     * 消息超出限流额度已被丢弃，连续被拒绝时只在第一次调用
+     */
+    public void handleRateLimited(Session session) {
+        logger.debug("Rate limited: {}", session.getRemoteAddress());
+        Message errorMsg = new Message(Message.MessageType.ERROR, "发送过于频繁，请稍后再试", "系统");
+        sendMessage(session, errorMsg);
+    }
+
+    private static void dispatch(Session session, Message message) throws IOException {
+        ChatMetrics.messages(message.getType()).inc();
+        switch (message.getType()) {
+            case JOIN:
+                handleJoin(session, message);
+                break;
+            case CHAT:
+                handleChat(session, message);
+                break;
+            case USER_LIST:
+                // 客户端发现增量版本不连续时重新请求快照
+                if (users.getUsername(session) != null) {
+                    presence.sendSnapshot(session);
+                }
+                break;
+            case KEY:
+                sendMessage(session, new Message(Message.MessageType.SYSTEM, "加密会话已建立", "系统"));
+                break;
+            case RESUME:
+                handleResume(session, message);
+                break;
+            default:
+                logger.error("Unknown message type: {}", message.getType());
         }
     }
 
-    private void handleJoin(Session session, Message message) throws IOException {
+    private static void handleJoin(Session session, Message message) {
         String username = message.getSender().trim();
 
         if (username.isEmpty() || username.length() > 20) {
@@ -76,29 +336,153 @@ public class ChatService {
             return;
         }
 
-        if (userSessions.containsValue(username)) {
+        for (int i = 0; i < username.length(); i++) {
+            if (Character.isISOControl(username.charAt(i))) {
+                Message errorMsg = new Message(Message.MessageType.ERROR,
+                        "用户名不能包含控制字符", "系统");
+                sendMessage(session, errorMsg);
+                return;
+            }
+        }
+
+        // 先在集群范围内占用，再在本节点原子占用，并发加入同名用户时只有一个能成功。
+        // 归属节点在其他节点上时不等待回复，收到回复后在集群总线线程上完成加入
+        if (users.isTaken(username)) {
+            completeJoin(session, username, ClusterService.ClaimResult.TAKEN);
+            return;
+        }
+        cluster.claim(username).whenComplete((result, error) -> {
+            try {
+                completeJoin(session, username, error != null ? ClusterService.ClaimResult.UNAVAILABLE : result);
+            } catch (RuntimeException e) {
+                logger.error("Join for {} failed", username, e);
+            }
+        });
+    }
+
+    /**
+     * 在会话的生命周期锁内完成加入。断开清理持有同一把锁：出站队列已释放（连接已断开）时放弃加入，
+     * 否则清理等加入完成后再执行，不会留下不在线的用户或房间成员
+     */
+    private static void completeJoin(Session session, String username, ClusterService.ClaimResult result) {
+        SessionOutbox outbox = dispatcher.getOutbox(session);
+        if (outbox != null) {
+            synchronized (outbox.getLifecycleLock()) {
+                if (dispatcher.getOutbox(session) == outbox) {
+                    joinLocked(session, username, result);
+                    return;
+                }
+            }
+        }
+        if (result == ClusterService.ClaimResult.GRANTED) {
+            cluster.release(username);
+        }
+    }
+
+    private static void joinLocked(Session session, String username, ClusterService.ClaimResult result) {
+        if (result == ClusterService.ClaimResult.UNAVAILABLE) {
+            Message errorMsg = new Message(Message.MessageType.ERROR,
+                    "暂时无法确认用户名是否可用，请稍后重试", "系统");
+            sendMessage(session, errorMsg);
+            return;
+        }
+        String previous = users.getUsername(session);
+        if (result == ClusterService.ClaimResult.TAKEN || !users.claim(session, username)) {
+            if (result == ClusterService.ClaimResult.GRANTED) {
+                cluster.release(username);
+            }
             Message errorMsg = new Message(Message.MessageType.ERROR,
                     "用户名已存在，请选择其他用户名", "系统");
             sendMessage(session, errorMsg);
             return;
         }
-
-        userSessions.put(session, username);
+        rooms.join(session, RoomRegistry.DEFAULT_ROOM);
 
         Message joinSuccess = new Message(Message.MessageType.SYSTEM,
                 "欢迎 " + username + " 加入聊天室!", "系统");
         sendMessage(session, joinSuccess);
+        String token = resumes.issue(session);
+        if (token != null) {
+            sendMessage(session, new Message(Message.MessageType.RESUME, token, "系统"));
+        }
+        if (previous == null) {
+            history.replay(session, RoomRegistry.DEFAULT_ROOM);
+        }
 
         Message joinMsg = new Message(Message.MessageType.JOIN,
                 username + " 加入了聊天室", "系统");
-        broadcastMessage(joinMsg, session);
+        joinMsg.setRoom(RoomRegistry.DEFAULT_ROOM);
+        broadcastToRoom(RoomRegistry.DEFAULT_ROOM, joinMsg, session, false);
 
-        updateOnlineUsers();
-        logger.info(username + " joined the chat, online users: " + userSessions.size());
+        if (previous != null) {
+            presence.left(previous);
+            cluster.userLeft(previous);
+        }
+        presence.joined(username);
+        cluster.userJoined(username);
+        presence.sendSnapshot(session);
+        logger.info("{} joined the chat, online users: {}", username, users.size());
     }
 
-    private void handleChat(Session session, Message message) throws IOException {
-        String username = userSessions.get(session);
+    /**
+     * 断线重连：内容为加入时收到的令牌，其后每行 "房间:序号" 为该房间最后收到的广播序号。
+     * 成功时静默接管原来的用户名和房间，只补发各房间该序号之后的广播，不广播加入或离开；
+     * 失败时回复错误，客户端应重新发送JOIN
+     */
+    private static void handleResume(Session session, Message message) {
+        String content = message.getContent();
+        if (users.getUsername(session) != null || content == null) {
+            sendMessage(session, new Message(Message.MessageType.ERROR, "无法恢复会话，请重新加入", "系统"));
+            return;
+        }
+        String[] lines = content.split("\n");
+        Session previous = resumes.resume(lines[0].trim());
+        String username = previous != null ? users.transfer(previous, session) : null;
+        if (username == null) {
+            sendMessage(session, new Message(Message.MessageType.ERROR, "会话已过期，请重新加入", "系统"));
+            return;
+        }
+
+        Map<String, Long> acks = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].lastIndexOf(':');
+            if (colon > 0) {
+                try {
+                    acks.put(lines[i].substring(0, colon).trim(), Long.parseLong(lines[i].substring(colon + 1).trim()));
+                } catch (NumberFormatException ignored) {
+                    // 忽略格式错误的行
+                }
+            }
+        }
+
+        sendMessage(session, new Message(Message.MessageType.RESUME, resumes.issue(session), "系统"));
+        sendMessage(session, new Message(Message.MessageType.SYSTEM, "已恢复会话，欢迎回来 " + username, "系统"));
+        for (String room : rooms.transferMembership(previous, session)) {
+            Long ack = acks.get(room);
+            if (ack == null) {
+                // 客户端没有该房间的序号，不补发
+                rooms.replaceMember(room, previous, session);
+            } else if (!history.resume(session, room, ack, () -> rooms.replaceMember(room, previous, session))) {
+                Message gap = new Message(Message.MessageType.SYSTEM, "断线期间的部分消息已无法补发", "系统");
+                gap.setRoom(room);
+                sendMessage(session, gap);
+            }
+        }
+        presence.sendSnapshot(session);
+
+        // 原连接可能是尚未被发现的半开连接，其后的onClose已无事可做
+        if (previous.isOpen()) {
+            try {
+                previous.disconnect();
+            } catch (IOException e) {
+                logger.debug("Disconnect failed for {}: {}", previous.getRemoteAddress(), e);
+            }
+        }
+        logger.info("{} resumed session", username);
+    }
+
+    private static void handleChat(Session session, Message message) throws IOException {
+        String username = users.getUsername(session);
         if (username != null && message.getContent() != null && !message.getContent().trim().isEmpty()) {
             String content = message.getContent().trim();
 
@@ -109,7 +493,7 @@ public class ChatService {
                 commandMessage.setType(Message.MessageType.CHAT);
                 commandMessage.setSender(username);
                 commandMessage.setContent(content);
-                commandMessage.setTimestamp(message.getTimestamp());
+                commandMessage.setTime(message.getTime());
 
                 // 交给命令服务处理
                 boolean isCommand = commandService.handleCommand(session, commandMessage);
@@ -118,42 +502,143 @@ public class ChatService {
                 }
             }
 
-            // 普通聊天消息
+            // 普通聊天消息，发往消息指定的房间（须已加入），否则发往当前房间
+            String room = message.getRoom();
+            if (room == null || !rooms.isMember(session, room)) {
+                room = rooms.currentRoom(session);
+            }
+            if (room == null) {
+                return;
+            }
+
             message.setSender(username);
             message.setContent(content);
-            broadcastMessage(message, null);
-            logger.info(username + " sent message: " + content);
+            message.setRoom(room);
+            broadcastToRoom(room, message, null, true);
+            logger.info(chatLog, "{} sent message to {}: {}", username, room, content);
         }
     }
 
-    private void sendMessage(Session session, Message message) throws IOException {
-        if (session.isOpen()) {
-            session.getRemote().sendString(mapper.writeValueAsString(message));
+    private static void sendMessage(Session session, Message message) {
+        dispatcher.send(session, message);
+    }
+
+    /**
+     * 向房间广播，分配房间内序号并本地投递后再转发给其他节点
+     * @param record 是否记入房间历史
+     */
+    private static void broadcastToRoom(String room, Message message, Session excludeSession, boolean record) {
+        // 只序列化一次，所有接收者共享同一帧
+        OutboundFrame frame = history.publish(room, message, record,
+                f -> dispatcher.broadcast(f, rooms.members(room), excludeSession));
+        if (frame == null) {
+            return;
         }
+        if (record) {
+            audit.record(frame);
+        }
+        cluster.publishRoom(room, frame, record);
     }
 
-    private void broadcastMessage(Message message, Session excludeSession) {
-        userSessions.forEach((session, username) -> {
-            if (session != excludeSession && session.isOpen()) {
-                try {
-                    session.getRemote().sendString(mapper.writeValueAsString(message));
-                } catch (IOException e) {
-                    logger.error("Send message error: " + e.getMessage());
-                }
-            }
-        });
+    public int getOnlineUsersCount() {
+        return users.size();
     }
 
-    private void updateOnlineUsers() {
-        String userList = String.join(", ", userSessions.values());
+    /**
+     * 入站与出站管道各阶段的耗时统计
+     */
+    public static Map<String, StageStats> getStageStats() {
+        Map<String, StageStats> result = new LinkedHashMap<>();
+        for (MessagePipeline pipeline : new MessagePipeline[]{inbound, dispatcher.getOutboundPipeline()}) {
+            pipeline.getStageStats().forEach((stage, stats) -> result.put(pipeline.getName() + "." + stage, stats));
+        }
+        return result;
+    }
 
-        // 发送系统消息
-        Message userListMsg = new Message(Message.MessageType.SYSTEM,
-                "当前在线用户 (" + userSessions.size() + "): " + userList, "系统");
-        broadcastMessage(userListMsg, null);
+    /**
+     * 入站消息限流，所有连接共享
+     */
+    public static RateLimiter getRateLimiter() {
+        return rateLimiter;
     }
 
-    public int getOnlineUsersCount() {
-        return userSessions.size();
+    public static AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    public static ResumeService getResumes() {
+        return resumes;
+    }
+
+    public static HeartbeatMonitor getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * 服务器停止时调用，等待历史消息写盘
+     */
+    public static void shutdown() {
+        heartbeat.close();
+        resumes.close();
+        cluster.close();
+        if (pipelineWorkers != null) {
+            pipelineWorkers.shutdown();
+        }
+        getStageStats().values().forEach(stats -> logger.info("Pipeline stage {}", stats));
+        if (CompressionStats.totalCompressedFrames() + CompressionStats.totalSkippedFrames() > 0) {
+            logger.info(String.format("Compression: %d frames compressed, %d skipped, ratio %.3f, cpu %dms",
+                    CompressionStats.totalCompressedFrames(), CompressionStats.totalSkippedFrames(),
+                    CompressionStats.totalRatio(), CompressionStats.totalCompressNanos() / 1_000_000));
+        }
+        logger.info("Rate limit: {}", rateLimiter);
+        history.close();
+        dispatcher.shutdown();
+        audit.close();
+        AsyncLogger.shutdown();
+    }
+
+    /**
+     * 一批断开的连接，各会话的清理可能在不同线程上完成，最后一个完成时统一发出通知
+     */
+    private static final class DisconnectBatch {
+        private final List<String> usernames = new ArrayList<>();
+        private final Map<String, List<String>> leftByRoom = new LinkedHashMap<>();
+        private int remaining;
+
+        DisconnectBatch(int size) {
+            this.remaining = size;
+        }
+
+        void add(String username, List<String> leftRooms) {
+            synchronized (this) {
+                if (username != null) {
+                    usernames.add(username);
+                    for (String room : leftRooms) {
+                        leftByRoom.computeIfAbsent(room, r -> new ArrayList<>()).add(username);
+                    }
+                }
+                if (--remaining > 0) {
+                    return;
+                }
+            }
+            publish();
+        }
+
+        private void publish() {
+            // 只通知离开用户所在房间的成员，同一房间的多个用户合并为一条
+            leftByRoom.forEach((room, names) -> {
+                Message leaveMsg = new Message(Message.MessageType.LEAVE,
+                        String.join(", ", names) + " 离开了聊天室", "系统");
+                leaveMsg.setRoom(room);
+                broadcastToRoom(room, leaveMsg, null, false);
+            });
+            for (String username : usernames) {
+                logger.info("{} left the chat", username);
+            }
+            presence.leftAll(usernames);
+            for (String username : usernames) {
+                cluster.userLeft(username);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,347 @@
+package net.kotiyasanae.chatserver.service;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+import net.kotiyasanae.chatserver.cluster.ClusterBus;
+import net.kotiyasanae.chatserver.cluster.ClusterListener;
+import net.kotiyasanae.chatserver.cluster.ClusterMessage;
+import net.kotiyasanae.chatserver.cluster.LocalClusterBus;
+import net.kotiyasanae.chatserver.cluster.TcpClusterBus;
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.model.Message;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多节点部署：在节点之间转发房间广播、私聊和在线状态，并保证用户名在集群内唯一
+ * <p>
+ * 本节点的投递总是先在本地完成，再异步交给集群总线发往其他节点。
+ * 每个用户名按哈希归属到一个节点，由归属节点裁决占用，归属节点不可达时顺延到下一个
+ * 已连接的节点（优先保证可用，分区恢复后的冲突在全量同步时记录）；其他节点的在线用户
+ * 通过上线/下线消息和连接建立时的全量同步维护。单节点运行时以上操作都直接返回
+ */
+public class ClusterService implements ClusterListener {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterService.class);
+
+    public enum ClaimResult {
+        GRANTED,
+        /** 已被集群中其他节点的用户占用 */
+        TAKEN,
+        /** 归属节点未连接或超时未回复 */
+        UNAVAILABLE
+    }
+
+    private final ClusterBus bus;
+    private final UserRegistry users;
+    private final RoomRegistry rooms;
+    private final HistoryService history;
+    private final MessageDispatcher dispatcher;
+    private final PresenceService presence;
+    private final long timeoutMillis;
+    private final boolean clustered;
+
+    // 其他节点的在线用户 -> 所在节点
+    private final Map<String, String> remoteUsers = new ConcurrentHashMap<>();
+    // 归属本节点的用户名 -> 占用该用户名的节点（含本节点）
+    private final Map<String, String> claims = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<Boolean>> pendingClaims = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    public ClusterService(ClusterBus bus, UserRegistry users, RoomRegistry rooms, HistoryService history,
+                          MessageDispatcher dispatcher, PresenceService presence, long timeoutMillis) {
+        this.bus = bus;
+        this.users = users;
+        this.rooms = rooms;
+        this.history = history;
+        this.dispatcher = dispatcher;
+        this.presence = presence;
+        this.timeoutMillis = timeoutMillis;
+        this.clustered = bus.getMembers().size() > 1;
+    }
+
+    /**
+     * 按配置创建；未配置 chat.cluster.node 时单节点运行
+     */
+    public static ClusterService create(ChatConfig config, UserRegistry users, RoomRegistry rooms,
+                                        HistoryService history, MessageDispatcher dispatcher,
+                                        PresenceService presence) {
+        String node = config.getClusterNode();
+        ClusterBus bus = node == null ? new LocalClusterBus("local")
+                : new TcpClusterBus(node, config.getClusterPeers(), config.getClusterQueueCapacity());
+        return new ClusterService(bus, users, rooms, history, dispatcher, presence,
+                config.getClusterTimeoutMillis());
+    }
+
+    public void start() throws IOException {
+        bus.start(this);
+    }
+
+    public void close() {
+        bus.close();
+    }
+
+    public boolean isClustered() {
+        return clustered;
+    }
+
+    /**
+     * 在集群范围内占用用户名，成功后调用方还需在本节点的UserRegistry中占用。
+     * 单节点或归属节点是本节点时返回已完成的结果；否则不等待，在收到回复（集群总线线程）
+     * 或超时时完成，慢节点不会占住调用方的I/O线程
+     */
+    public CompletableFuture<ClaimResult> claim(String username) {
+        if (!clustered) {
+            return CompletableFuture.completedFuture(ClaimResult.GRANTED);
+        }
+        String owner = ownerOf(username);
+        if (owner.equals(bus.getNodeId())) {
+            return CompletableFuture.completedFuture(grant(username, owner) ? ClaimResult.GRANTED : ClaimResult.TAKEN);
+        }
+
+        long id = requestIds.incrementAndGet();
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        pendingClaims.put(id, reply);
+        if (!bus.send(owner, ClusterMessage.claim(id, username))) {
+            pendingClaims.remove(id);
+            return CompletableFuture.completedFuture(ClaimResult.UNAVAILABLE);
+        }
+        return reply.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).handle((granted, error) -> {
+            pendingClaims.remove(id);
+            if (error != null) {
+                logger.warn("Username claim for {} timed out at node {}", username, owner);
+                return ClaimResult.UNAVAILABLE;
+            }
+            return granted ? ClaimResult.GRANTED : ClaimResult.TAKEN;
+        });
+    }
+
+    /**
+     * 本节点已不再使用该用户名时（本地占用失败或用户离开）释放集群占用
+     */
+    public void release(String username) {
+        if (!clustered || users.isTaken(username)) {
+            return;
+        }
+        // 占用时的归属节点可能已经变化，通知所有节点
+        claims.remove(username, bus.getNodeId());
+        bus.publish(ClusterMessage.of(ClusterMessage.Type.RELEASE, username));
+    }
+
+    public void userJoined(String username) {
+        if (clustered) {
+            bus.publish(ClusterMessage.of(ClusterMessage.Type.PRESENCE_JOIN, username));
+        }
+    }
+
+    public void userLeft(String username) {
+        if (!clustered || users.isTaken(username)) {
+            return; // 同名用户已在本节点重新登录
+        }
+        bus.publish(ClusterMessage.of(ClusterMessage.Type.PRESENCE_LEAVE, username));
+        release(username);
+    }
+
+    /**
+     * 本地投递完成后把房间广播转发给其他节点
+     * @param record 接收节点是否记入房间历史
+     */
+    public void publishRoom(String room, OutboundFrame frame, boolean record) {
+        if (clustered) {
+            bus.publish(ClusterMessage.broadcast(room, frame.bytes(), record));
+        }
+    }
+
+    /**
+     * 向其他节点上的用户发送私聊
+     * @return 用户不在其他节点上或所在节点未连接返回false
+     */
+    public boolean sendPrivate(String target, Message message) {
+        String node = remoteUsers.get(target);
+        if (node == null) {
+            return false;
+        }
+        OutboundFrame frame = dispatcher.encode(message);
+        return frame != null && bus.send(node, ClusterMessage.privateMessage(target, frame.bytes()));
+    }
+
+    /**
+     * 其他节点上的在线用户
+     */
+    public Collection<String> remoteUsernames() {
+        return remoteUsers.keySet();
+    }
+
+    /**
+     * 已连接的其他节点数
+     */
+    public int getConnectedPeers() {
+        int connected = 0;
+        for (String node : bus.getMembers()) {
+            if (!node.equals(bus.getNodeId()) && bus.isConnected(node)) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * 集群总线因对端未连接或队列已满丢弃的消息数
+     */
+    public long getDroppedCount() {
+        return bus.getDroppedCount();
+    }
+
+    private String ownerOf(String username) {
+        List<String> members = bus.getMembers();
+        int start = Math.floorMod(username.hashCode(), members.size());
+        for (int i = 0; i < members.size(); i++) {
+            String node = members.get((start + i) % members.size());
+            if (bus.isConnected(node)) {
+                return node;
+            }
+        }
+        return bus.getNodeId();
+    }
+
+    private boolean grant(String username, String node) {
+        // 顺延期间的占用可能不在本节点的记录中，同时参考已知的在线用户
+        String online = remoteUsers.get(username);
+        if (online != null && !online.equals(node)) {
+            return false;
+        }
+        if (!node.equals(bus.getNodeId()) && users.isTaken(username)) {
+            return false;
+        }
+        String holder = claims.putIfAbsent(username, node);
+        return holder == null || holder.equals(node);
+    }
+
+    /**
+     * 其他节点转发的房间广播：房间序号由各节点独立分配，解码后按本节点的序号重新编码再投递，
+     * 每条消息在每个节点上只重编码一次
+     */
+    private void publishRemote(String room, byte[] payload, boolean record) {
+        Message remote;
+        try {
+            remote = MessageCodec.decode(new String(payload, StandardCharsets.UTF_8));
+        } catch (JsonProcessingException e) {
+            logger.warn("Dropping malformed broadcast for room {}: {}", room, e.getOriginalMessage());
+            return;
+        }
+        history.publish(room, remote, record, frame -> {
+            Set<Session> members = rooms.members(room);
+            if (!members.isEmpty()) {
+                dispatcher.broadcast(frame, members, null);
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(String nodeId, ClusterMessage message) {
+        String key = message.getKey();
+        switch (message.getType()) {
+            case BROADCAST:
+                publishRemote(key, message.getPayload(), message.getFlag());
+                break;
+            case PRIVATE:
+                Session target = users.getSession(key);
+                if (target != null) {
+                    dispatcher.send(target, OutboundFrame.wrap(message.getPayload()));
+                }
+                break;
+            case PRESENCE_JOIN:
+                remoteJoined(nodeId, key);
+                break;
+            case PRESENCE_LEAVE:
+                if (remoteUsers.remove(key, nodeId)) {
+                    presence.left(key);
+                }
+                break;
+            case PRESENCE_SYNC:
+                handleSync(nodeId, message.usernames());
+                break;
+            case CLAIM:
+                // 申请方认为本节点是归属节点即可裁决，双方的连接视图可能短暂不一致
+                boolean granted = grant(key, nodeId);
+                bus.send(nodeId, ClusterMessage.claimReply(message.getId(), key, granted));
+                break;
+            case CLAIM_REPLY:
+                CompletableFuture<Boolean> reply = pendingClaims.remove(message.getId());
+                if (reply != null && reply.complete(message.getFlag())) {
+                    break;
+                }
+                if (message.getFlag()) {
+                    // 已超时放弃的申请，把占用还回去
+                    release(key);
+                }
+                break;
+            case RELEASE:
+                claims.remove(key, nodeId);
+                break;
+            default:
+                logger.warn("Unexpected cluster message {} from {}", message, nodeId);
+        }
+    }
+
+    private void remoteJoined(String nodeId, String username) {
+        if (!nodeId.equals(remoteUsers.put(username, nodeId))) {
+            presence.joined(username);
+        }
+    }
+
+    /**
+     * 对端（重新）连接后发来的全量在线用户，替换该节点原有的在线用户和占用
+     */
+    private void handleSync(String nodeId, List<String> usernames) {
+        Set<String> names = new HashSet<>(usernames);
+        remoteUsers.forEach((username, node) -> {
+            if (node.equals(nodeId) && !names.contains(username) && remoteUsers.remove(username, nodeId)) {
+                presence.left(username);
+            }
+        });
+        claims.entrySet().removeIf(entry -> entry.getValue().equals(nodeId) && !names.contains(entry.getKey()));
+
+        String self = bus.getNodeId();
+        for (String username : names) {
+            remoteJoined(nodeId, username);
+            if (ownerOf(username).equals(self) && !grant(username, nodeId)) {
+                // 本节点下线期间双方各自登录了同名用户，只能记录下来
+                logger.warn("Username {} is held by both {} and {}", username, claims.get(username), nodeId);
+            }
+        }
+        logger.info("Cluster peer {} synced {} online users", nodeId, names.size());
+    }
+
+    @Override
+    public ClusterMessage onPeerConnected(String nodeId) {
+        return ClusterMessage.sync(users.usernames());
+    }
+
+    @Override
+    public void onPeerDown(String nodeId) {
+        int removed = 0;
+        for (Map.Entry<String, String> entry : remoteUsers.entrySet()) {
+            if (entry.getValue().equals(nodeId) && remoteUsers.remove(entry.getKey(), nodeId)) {
+                presence.left(entry.getKey());
+                removed++;
+            }
+        }
+        claims.values().removeIf(nodeId::equals);
+        logger.warn("Cluster peer {} down, {} remote users removed", nodeId, removed);
+    }
+}
@@ -1,22 +1,54 @@
 package net.kotiyasanae.chatserver.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import net.kotiyasanae.chatserver.ChatConfig;
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.command.Command;
+import net.kotiyasanae.chatserver.command.CommandContext;
+import net.kotiyasanae.chatserver.command.CommandRegistry;
+import net.kotiyasanae.chatserver.logging.AsyncLogger;
+import net.kotiyasanae.chatserver.logging.AuditLog;
+import net.kotiyasanae.chatserver.logging.LogSampler;
+import net.kotiyasanae.chatserver.metrics.ChatMetrics;
 import net.kotiyasanae.chatserver.model.Message;
+import net.kotiyasanae.chatserver.model.Timestamps;
 import org.eclipse.jetty.websocket.api.Session;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 public class CommandService {
-    private static final Logger logger = LoggerFactory.getLogger(CommandService.class);
-    private final ObjectMapper mapper = new ObjectMapper();
-    private final Map<Session, String> userSessions;
+    private static final AsyncLogger logger = AsyncLogger.getLogger(CommandService.class);
+    private static final LogSampler commandLog = LogSampler.create("command", ChatConfig.get().getLogSampleRate());
+    private final UserRegistry users;
+    private final RoomRegistry rooms;
+    private final HistoryService history;
+    private final MessageDispatcher dispatcher;
+    private final ClusterService cluster;
+    private final AuditLog audit;
+    private final CommandRegistry registry = new CommandRegistry();
 
-    public CommandService(Map<Session, String> userSessions) {
-        this.userSessions = userSessions;
+    public CommandService(UserRegistry users, RoomRegistry rooms, HistoryService history,
+                          MessageDispatcher dispatcher, ClusterService cluster, AuditLog audit) {
+        this.users = users;
+        this.rooms = rooms;
+        this.history = history;
+        this.dispatcher = dispatcher;
+        this.cluster = cluster;
+        this.audit = audit;
+        registerBuiltins();
+    }
+
+    /**
+     * 注册新命令，名称或别名不能与已有命令重复
+     */
+    public void register(Command command) {
+        registry.register(command);
+    }
+
+    public CommandRegistry getRegistry() {
+        return registry;
     }
 
     /**
@@ -27,167 +59,161 @@ public class CommandService {
      */
     public boolean handleCommand(Session session, Message message) throws IOException {
         String content = message.getContent().trim();
-        String username = userSessions.get(session);
 
         if (!content.startsWith(".")) {
             return false; // 不是命令
         }
 
-        String[] parts = content.split("\\s+", 2);
-        String command = parts[0].toLowerCase();
-        String argument = parts.length > 1 ? parts[1] : "";
-
-        switch (command) {
-            case ".ping":
-                handlePingCommand(session, username);
-                break;
-            case ".help":
-                handleHelpCommand(session, username);
-                break;
-            case ".users":
-                handleUsersCommand(session, username);
-                break;
-            case ".time":
-                handleTimeCommand(session, username);
-                break;
-            case ".clear":
-                handleClearCommand(session, username);
-                break;
-            case ".me":
-                handleMeCommand(session, username, argument);
-                break;
-            case ".msg":
-                handlePrivateMessageCommand(session, username, argument);
-                break;
-            default:
-                handleUnknownCommand(session, username, command);
-                break;
+        long start = System.nanoTime();
+        String username = users.getUsername(session);
+        Command command = registry.find(content);
+        if (command == null) {
+            handleUnknownCommand(session, username, CommandRegistry.commandName(content).toLowerCase(Locale.ROOT));
+            ChatMetrics.command("unknown").inc();
+        } else if (!command.execute(new CommandContext(session, username, content, command))) {
+            sendError(session, command.getUsage());
         }
+        ChatMetrics.commandLatency.recordSince(start);
 
         return true;
     }
 
+    private void registerBuiltins() {
+        register(new Command(".ping", "", "测试服务器响应", this::handlePingCommand));
+        register(new Command(".help", "", "显示此帮助信息", this::handleHelpCommand).aliases(".?"));
+        register(new Command(".users", "", "显示在线用户列表", this::handleUsersCommand).aliases(".who"));
+        register(new Command(".time", "", "显示当前服务器时间", this::handleTimeCommand));
+        register(new Command(".clear", "", "清空聊天记录", this::handleClearCommand));
+        register(new Command(".me", "<动作>", "发送动作消息", this::handleMeCommand)
+                .example(".me 正在喝茶"));
+        register(new Command(".msg", "<用户名> <消息>", "发送私聊消息", this::handlePrivateMessageCommand)
+                .aliases(".w").example(".msg Alice 你好"));
+        register(new Command(".join", "<房间>", "加入并进入房间", this::handleJoinRoomCommand));
+        register(new Command(".switch", "<房间>", "切换到已加入的房间", this::handleSwitchRoomCommand));
+        register(new Command(".leave", "[房间]", "离开房间（默认当前房间）", this::handleLeaveRoomCommand));
+        register(new Command(".rooms", "", "显示房间列表", this::handleRoomsCommand));
+    }
+
     /**
      * 处理 .ping 命令
      */
-    private void handlePingCommand(Session session, String username) throws IOException {
+    private void handlePingCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
         Message pongMsg = new Message(Message.MessageType.SYSTEM,
                 "pong!", "系统");
         sendMessage(session, pongMsg);
-        logger.info("用户 {} 执行了 .ping 命令", username);
+        logger.info(commandLog, "用户 {} 执行了 .ping 命令", username);
     }
 
     /**
      * 处理 .help 命令 - 显示所有可用命令
      */
-    private void handleHelpCommand(Session session, String username) throws IOException {
-        String helpText =
-                "可用命令:\n" +
-                        ".ping - 测试服务器响应\n" +
-                        ".help - 显示此帮助信息\n" +
-                        ".users - 显示在线用户列表\n" +
-                        ".time - 显示当前服务器时间\n" +
-                        ".clear - 清空聊天记录\n" +
-                        ".me <动作> - 发送动作消息\n" +
-                        ".msg <用户名> <消息> - 发送私聊消息";
-
+    private void handleHelpCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
         Message helpMsg = new Message(Message.MessageType.SYSTEM,
-                helpText, "系统");
+                registry.getHelpText(), "系统");
         sendMessage(session, helpMsg);
-        logger.info("用户 {} 执行了 .help 命令", username);
+        logger.info(commandLog, "用户 {} 执行了 .help 命令", username);
     }
 
     /**
      * 处理 .users 命令 - 显示在线用户
      */
-    private void handleUsersCommand(Session session, String username) throws IOException {
-        String userList = String.join(", ", userSessions.values());
-        String usersText = "当前在线用户 (" + userSessions.size() + "): " + userList;
+    private void handleUsersCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
+        // 集群模式下包含其他节点上的用户
+        List<String> usernames = new ArrayList<>(users.usernames());
+        usernames.addAll(cluster.remoteUsernames());
+        String userList = String.join(", ", usernames);
+        String usersText = "当前在线用户 (" + usernames.size() + "): " + userList;
 
         Message usersMsg = new Message(Message.MessageType.SYSTEM,
                 usersText, "系统");
         sendMessage(session, usersMsg);
-        logger.info("用户 {} 执行了 .users 命令", username);
+        logger.info(commandLog, "用户 {} 执行了 .users 命令", username);
     }
 
     /**
      * 处理 .time 命令 - 显示服务器时间
      */
-    private void handleTimeCommand(Session session, String username) throws IOException {
-        String currentTime = java.time.LocalDateTime.now().format(
-                java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+    private void handleTimeCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
+        String currentTime = Timestamps.format(System.currentTimeMillis());
         String timeText = "服务器当前时间: " + currentTime;
 
         Message timeMsg = new Message(Message.MessageType.SYSTEM,
                 timeText, "系统");
         sendMessage(session, timeMsg);
-        logger.info("用户 {} 执行了 .time 命令", username);
+        logger.info(commandLog, "用户 {} 执行了 .time 命令", username);
     }
 
     /**
      * 处理 .clear 命令 - 清空聊天记录（客户端功能）
      */
-    private void handleClearCommand(Session session, String username) throws IOException {
+    private void handleClearCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
         Message clearMsg = new Message(Message.MessageType.SYSTEM,
                 "CLEAR_CHAT", "系统"); // 特殊标记，客户端识别后清屏
         sendMessage(session, clearMsg);
-        logger.info("用户 {} 执行了 .clear 命令", username);
+        logger.info(commandLog, "用户 {} 执行了 .clear 命令", username);
     }
 
     /**
      * 处理 .me 命令 - 发送动作消息
      */
-    private void handleMeCommand(Session session, String username, String action) throws IOException {
-        if (action.isEmpty()) {
-            Message errorMsg = new Message(Message.MessageType.ERROR,
-                    "用法: .me <动作>，例如: .me 正在喝茶", "系统");
-            sendMessage(session, errorMsg);
+    private void handleMeCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
+        String action = context.arg(0);
+
+        String room = rooms.currentRoom(session);
+        if (room == null) {
             return;
         }
 
         String actionText = username + " " + action;
         Message actionMsg = new Message(Message.MessageType.SYSTEM,
                 actionText, "系统");
-        broadcastMessage(actionMsg, null);
-        logger.info("用户 {} 执行了动作: {}", username, action);
+        actionMsg.setRoom(room);
+        broadcastToRoom(room, actionMsg, null);
+        logger.info(commandLog, "用户 {} 执行了动作: {}", username, action);
     }
 
     /**
      * 处理 .msg 命令 - 发送私聊消息
      */
-    private void handlePrivateMessageCommand(Session session, String username, String argument) throws IOException {
-        String[] parts = argument.split("\\s+", 2);
-        if (parts.length < 2) {
-            Message errorMsg = new Message(Message.MessageType.ERROR,
-                    "用法: .msg <用户名> <消息>，例如: .msg Alice 你好", "系统");
-            sendMessage(session, errorMsg);
-            return;
-        }
-
-        String targetUser = parts[0];
-        String privateMessage = parts[1];
+    private void handlePrivateMessageCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
+        String targetUser = context.arg(0);
+        String privateMessage = context.arg(1);
 
         // 查找目标用户
         Session targetSession = findSessionByUsername(targetUser);
-        if (targetSession == null) {
-            Message errorMsg = new Message(Message.MessageType.ERROR,
-                    "用户 " + targetUser + " 不在线或不存在", "系统");
-            sendMessage(session, errorMsg);
-            return;
-        }
-
-        if (targetSession.equals(session)) {
+        if (targetSession != null && targetSession.equals(session)) {
             Message errorMsg = new Message(Message.MessageType.ERROR,
                     "不能给自己发送私聊消息", "系统");
             sendMessage(session, errorMsg);
             return;
         }
 
-        // 发送私聊消息给目标用户
+        // 发送私聊消息给目标用户，不在本节点时转发到其所在节点
         String toTargetMsg = "[私聊] " + username + " 对你说: " + privateMessage;
         Message privateMsgToTarget = new Message(Message.MessageType.SYSTEM,
                 toTargetMsg, "系统");
-        sendMessage(targetSession, privateMsgToTarget);
+        if (targetSession != null) {
+            sendMessage(targetSession, privateMsgToTarget);
+        } else if (!cluster.sendPrivate(targetUser, privateMsgToTarget)) {
+            Message errorMsg = new Message(Message.MessageType.ERROR,
+                    "用户 " + targetUser + " 不在线或不存在", "系统");
+            sendMessage(session, errorMsg);
+            return;
+        }
 
         // 发送确认消息给发送者
         String toSenderMsg = "[私聊] 你对 " + targetUser + " 说: " + privateMessage;
@@ -195,7 +221,130 @@ public class CommandService {
                 toSenderMsg, "系统");
         sendMessage(session, privateMsgToSender);
 
-        logger.info("用户 {} 向 {} 发送私聊消息: {}", username, targetUser, privateMessage);
+        audit.recordPrivate(username, targetUser, privateMessage);
+        logger.info(commandLog, "用户 {} 向 {} 发送私聊消息: {}", username, targetUser, privateMessage);
+    }
+
+    /**
+     * 处理 .join 命令 - 加入并进入房间
+     */
+    private void handleJoinRoomCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
+        String room = context.arg(0);
+        if (!RoomRegistry.isValidRoomName(room)) {
+            Message errorMsg = new Message(Message.MessageType.ERROR,
+                    "用法: .join <房间>，房间名不能包含空白且不能超过"
+                            + RoomRegistry.MAX_ROOM_NAME_LENGTH + "个字符", "系统");
+            sendMessage(session, errorMsg);
+            return;
+        }
+
+        boolean alreadyMember = rooms.isMember(session, room);
+        if (!rooms.join(session, room)) {
+            Message errorMsg = new Message(Message.MessageType.ERROR,
+                    "最多同时加入" + RoomRegistry.MAX_ROOMS_PER_SESSION + "个房间", "系统");
+            sendMessage(session, errorMsg);
+            return;
+        }
+
+        if (!alreadyMember) {
+            Message joinMsg = new Message(Message.MessageType.JOIN,
+                    username + " 加入了房间 " + room, "系统");
+            joinMsg.setRoom(room);
+            broadcastToRoom(room, joinMsg, session);
+        }
+
+        Message okMsg = new Message(Message.MessageType.SYSTEM,
+                "已进入房间 " + room + " (" + rooms.members(room).size() + "人)", "系统");
+        okMsg.setRoom(room);
+        sendMessage(session, okMsg);
+        if (!alreadyMember) {
+            history.replay(session, room);
+        }
+        logger.info(commandLog, "用户 {} 加入了房间 {}", username, room);
+    }
+
+    /**
+     * 处理 .switch 命令 - 切换当前房间
+     */
+    private void handleSwitchRoomCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
+        String room = context.arg(0);
+        if (!rooms.switchTo(session, room)) {
+            Message errorMsg = new Message(Message.MessageType.ERROR,
+                    "未加入房间 " + room + "，请先使用 .join " + room, "系统");
+            sendMessage(session, errorMsg);
+            return;
+        }
+
+        Message okMsg = new Message(Message.MessageType.SYSTEM,
+                "已切换到房间 " + room, "系统");
+        okMsg.setRoom(room);
+        sendMessage(session, okMsg);
+        logger.info(commandLog, "用户 {} 切换到房间 {}", username, room);
+    }
+
+    /**
+     * 处理 .leave 命令 - 离开房间
+     */
+    private void handleLeaveRoomCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
+        String room = context.arg(0);
+        if (room.isEmpty()) {
+            room = rooms.currentRoom(session);
+        }
+
+        if (RoomRegistry.DEFAULT_ROOM.equals(room) && rooms.joinedRooms(session).size() == 1) {
+            Message errorMsg = new Message(Message.MessageType.ERROR,
+                    "已在默认房间 " + room + "，无法离开", "系统");
+            sendMessage(session, errorMsg);
+            return;
+        }
+
+        String current = room != null ? rooms.leave(session, room) : null;
+        if (current == null) {
+            Message errorMsg = new Message(Message.MessageType.ERROR,
+                    "未加入房间 " + room, "系统");
+            sendMessage(session, errorMsg);
+            return;
+        }
+
+        Message leaveMsg = new Message(Message.MessageType.LEAVE,
+                username + " 离开了房间 " + room, "系统");
+        leaveMsg.setRoom(room);
+        broadcastToRoom(room, leaveMsg, session);
+
+        Message okMsg = new Message(Message.MessageType.SYSTEM,
+                "已离开房间 " + room + "，当前房间: " + current, "系统");
+        okMsg.setRoom(current);
+        sendMessage(session, okMsg);
+        logger.info(commandLog, "用户 {} 离开了房间 {}", username, room);
+    }
+
+    /**
+     * 处理 .rooms 命令 - 显示房间列表
+     */
+    private void handleRoomsCommand(CommandContext context) throws IOException {
+        Session session = context.getSession();
+        String username = context.getUsername();
+        String current = rooms.currentRoom(session);
+        StringBuilder sb = new StringBuilder("房间列表:");
+        rooms.roomSizes().forEach((room, size) -> {
+            sb.append("\n").append(room).append(" (").append(size).append("人)");
+            if (room.equals(current)) {
+                sb.append(" [当前]");
+            } else if (rooms.isMember(session, room)) {
+                sb.append(" [已加入]");
+            }
+        });
+
+        Message roomsMsg = new Message(Message.MessageType.SYSTEM,
+                sb.toString(), "系统");
+        sendMessage(session, roomsMsg);
+        logger.info(commandLog, "用户 {} 执行了 .rooms 命令", username);
     }
 
     /**
@@ -205,42 +354,38 @@ public class CommandService {
         Message errorMsg = new Message(Message.MessageType.ERROR,
                 "未知命令: " + command + "，输入 .help 查看可用命令", "系统");
         sendMessage(session, errorMsg);
-        logger.info("用户 {} 尝试了未知命令: {}", username, command);
+        logger.info(commandLog, "用户 {} 尝试了未知命令: {}", username, command);
     }
 
     /**
      * 根据用户名查找会话
      */
     private Session findSessionByUsername(String username) {
-        for (Map.Entry<Session, String> entry : userSessions.entrySet()) {
-            if (entry.getValue().equals(username) && entry.getKey().isOpen()) {
-                return entry.getKey();
-            }
-        }
-        return null;
+        Session session = users.getSession(username);
+        return session != null && session.isOpen() ? session : null;
+    }
+
+    private void sendError(Session session, String text) throws IOException {
+        sendMessage(session, new Message(Message.MessageType.ERROR, text, "系统"));
     }
 
     /**
      * 发送消息给指定会话
      */
     private void sendMessage(Session session, Message message) throws IOException {
-        if (session.isOpen()) {
-            session.getRemote().sendString(mapper.writeValueAsString(message));
-        }
+        dispatcher.send(session, message);
     }
 
     /**
-     * 广播消息给所有用户
+     * 广播消息给房间内的所有用户
      */
-    private void broadcastMessage(Message message, Session excludeSession) {
-        userSessions.forEach((session, username) -> {
-            if (session != excludeSession && session.isOpen()) {
-                try {
-                    session.getRemote().sendString(mapper.writeValueAsString(message));
-                } catch (IOException e) {
-                    logger.error("发送消息错误: " + e.getMessage());
-                }
-            }
-        });
+    private void broadcastToRoom(String room, Message message, Session excludeSession) {
+        OutboundFrame frame = history.publish(room, message, false,
+                f -> dispatcher.broadcast(f, rooms.members(room), excludeSession));
+        if (frame == null) {
+            return;
+        }
+
+        cluster.publishRoom(room, frame, false);
     }
-}
\ No newline at end of file
+}
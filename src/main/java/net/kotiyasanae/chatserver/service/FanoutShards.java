@@ -0,0 +1,225 @@
+package net.kotiyasanae.chatserver.service;
+
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * 分片并行投递：会话按身份哈希固定分到N个分片，每个分片一个线程，负责把帧放入本分片会话的出站队列
+ * （出站队列空闲时写出也在该线程上进行）
+ * <p>
+ * 广播时调用线程只按分片把接收者分组，每个分片入队一次，各分片并行投递；分组在调用线程上完成，
+ * 投递的会话集合就是调用时的成员，与在锁内分配序号、恢复会话时补发的语义一致。
+ * 单发也进入会话所属分片的队列，同一会话的所有帧都经过同一个先进先出队列，顺序与调用顺序一致
+ */
+public final class FanoutShards {
+    private static final Logger logger = LoggerFactory.getLogger(FanoutShards.class);
+
+    private final Shard[] shards;
+    private final BiConsumer<Session, OutboundFrame> sink;
+    private final LongAdder pending = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * @param sink 把帧放入会话的出站队列，在分片线程上调用
+     */
+    public FanoutShards(int count, BiConsumer<Session, OutboundFrame> sink) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        this.sink = sink;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard("fanout-shard-" + i);
+        }
+    }
+
+    /**
+     * 单发给一个会话
+     */
+    public void send(Session session, OutboundFrame frame) {
+        Batch batch = new Batch(frame, 1, null);
+        batch.add(session);
+        shardOf(session).offer(batch);
+    }
+
+    /**
+     * 把同一帧投递给一组会话，立即返回
+     * @param onComplete 所有分片投递完成后在最后完成的分片线程上调用，可以为null
+     * @return 接收者数量
+     */
+    public int publish(OutboundFrame frame, Iterable<Session> sessions, Session excludeSession,
+                       Runnable onComplete) {
+        int expected = sessions instanceof Collection ? ((Collection<?>) sessions).size() : 16;
+        // 按均匀分布预留八分之一的余量，大多数分组不需要扩容
+        int initial = expected / shards.length * 9 / 8 + 4;
+        Completion completion = new Completion(onComplete);
+        Batch[] batches = new Batch[shards.length];
+        int recipients = 0;
+        for (Session session : sessions) {
+            if (session == excludeSession) {
+                continue;
+            }
+            int index = indexOf(session);
+            Batch batch = batches[index];
+            if (batch == null) {
+                batch = batches[index] = new Batch(frame, initial, completion);
+            }
+            batch.add(session);
+            recipients++;
+        }
+
+        int used = 0;
+        for (Batch batch : batches) {
+            if (batch != null) {
+                used++;
+            }
+        }
+        if (used == 0) {
+            if (onComplete != null) {
+                onComplete.run();
+            }
+            return 0;
+        }
+        // 先确定分片数再入队，避免早完成的分片提前触发回调
+        completion.remaining.set(used);
+        for (int i = 0; i < batches.length; i++) {
+            if (batches[i] != null) {
+                shards[i].offer(batches[i]);
+            }
+        }
+        return recipients;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /** 已入队尚未投递完的批次 */
+    public long getPendingCount() {
+        return pending.sum();
+    }
+
+    /**
+     * 停止分片线程，已入队的批次投递完后退出
+     */
+    public void close() {
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+    }
+
+    private Shard shardOf(Session session) {
+        return shards[indexOf(session)];
+    }
+
+    private int indexOf(Session session) {
+        // 身份哈希的低位分布不均，先打散再取模
+        return Math.floorMod(System.identityHashCode(session) * 0x9E3779B9, shards.length);
+    }
+
+    private static final class Completion {
+        final AtomicInteger remaining = new AtomicInteger();
+        final Runnable onComplete;
+
+        Completion(Runnable onComplete) {
+            this.onComplete = onComplete;
+        }
+
+        void shardDone() {
+            if (remaining.decrementAndGet() == 0 && onComplete != null) {
+                onComplete.run();
+            }
+        }
+    }
+
+    /**
+     * 同一帧发往同一分片的一组会话
+     */
+    private static final class Batch {
+        final OutboundFrame frame;
+        final Completion completion;
+        Session[] targets;
+        int size;
+
+        Batch(OutboundFrame frame, int capacity, Completion completion) {
+            this.frame = frame;
+            this.targets = new Session[capacity];
+            this.completion = completion;
+        }
+
+        void add(Session session) {
+            if (size == targets.length) {
+                targets = Arrays.copyOf(targets, size + (size >> 1) + 1);
+            }
+            targets[size++] = session;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final Queue<Batch> queue = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+        volatile boolean sleeping;
+
+        Shard(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void offer(Batch batch) {
+            pending.increment();
+            queue.offer(batch);
+            // 只有分片线程确实在休眠时才唤醒，繁忙时入队没有额外的通知开销
+            if (sleeping) {
+                sleeping = false;
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Batch batch = queue.poll();
+                if (batch != null) {
+                    deliver(batch);
+                    continue;
+                }
+                if (!running) {
+                    return;
+                }
+                sleeping = true;
+                if (queue.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+            }
+        }
+
+        private void deliver(Batch batch) {
+            Session[] targets = batch.targets;
+            for (int i = 0; i < batch.size; i++) {
+                try {
+                    sink.accept(targets[i], batch.frame);
+                } catch (RuntimeException e) {
+                    logger.warn("Delivery to {} failed: {}", targets[i].getRemoteAddress(), e.toString());
+                }
+            }
+            pending.decrement();
+            if (batch.completion != null) {
+                batch.completion.shardDone();
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.kotiyasanae.chatserver.service;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.history.MessageLog;
+import net.kotiyasanae.chatserver.history.RecentMessages;
+import net.kotiyasanae.chatserver.model.Message;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 房间消息历史：记录广播过的聊天帧，并在用户进入房间时回放最近的消息
+ * 房间在内存中已有缓冲时只从内存回放；只有缓冲尚未建立（启动后还没有消息，或空闲被回收）时才读取磁盘日志，
+ * 读到的帧同时预填缓冲，每个房间最多读一次磁盘
+ * <p>
+ * 所有房间广播都经过 {@link #publish} 分配房间内的序号，并进入补发缓冲，断线重连时按客户端确认的序号补发
+ */
+public class HistoryService {
+    private static final Logger logger = LoggerFactory.getLogger(HistoryService.class);
+
+    private final RecentMessages recent;
+    private final RecentMessages sequenced;
+    private final MessageLog log;
+    private final MessageDispatcher dispatcher;
+    private final int replayCount;
+
+    /**
+     * @param sequenced 所有房间广播的补发缓冲，条目序号即广播序号
+     */
+    public HistoryService(RecentMessages recent, RecentMessages sequenced, MessageLog log,
+                          MessageDispatcher dispatcher, int replayCount) {
+        this.recent = recent;
+        this.sequenced = sequenced;
+        this.log = log;
+        this.dispatcher = dispatcher;
+        this.replayCount = replayCount;
+    }
+
+    /**
+     * 按配置创建；未配置历史目录、不回放历史或打开失败时只保留内存中的最近消息
+     */
+    public static HistoryService create(ChatConfig config, MessageDispatcher dispatcher) {
+        MessageLog log = null;
+        Path dir = config.getHistoryDir();
+        if (dir != null && config.getHistoryReplayCount() <= 0) {
+            logger.info("History replay is disabled, message log at {} not opened", dir);
+        } else if (dir != null) {
+            try {
+                log = new MessageLog(dir, config.getHistoryReplayCount(), config.getHistoryQueueCapacity(),
+                        config.getHistorySegmentBytes(), config.getHistoryRetentionBytes(),
+                        config.getHistoryRetentionMillis());
+            } catch (IOException e) {
+                logger.error("Failed to open message log at {}, history disabled", dir, e);
+            }
+        }
+        RecentMessages recent = new RecentMessages(config.getBacklogEntries(),
+                config.getBacklogBytes(), config.getBacklogIdleMillis());
+        RecentMessages sequenced = new RecentMessages(config.getResumeBufferEntries(),
+                config.getResumeBufferBytes(), config.getBacklogIdleMillis());
+        return new HistoryService(recent, sequenced, log, dispatcher, config.getHistoryReplayCount());
+    }
+
+    /**
+     * 房间广播：在房间锁内分配序号、编码并交给deliver投递，各接收者按序号顺序收到
+     * @param record 是否记入房间历史（进入房间时回放）
+     * @return 编码后的帧，被过滤或编码失败时返回null
+     */
+    public OutboundFrame publish(String room, Message message, boolean record, Consumer<OutboundFrame> deliver) {
+        OutboundFrame frame = sequenced.append(room, seq -> {
+            message.setSeq(seq);
+            OutboundFrame encoded = dispatcher.encode(message);
+            if (encoded != null) {
+                deliver.accept(encoded);
+            }
+            return encoded;
+        });
+        if (frame != null && record) {
+            record(room, frame);
+        }
+        return frame;
+    }
+
+    /**
+     * 断线重连：向会话补发房间内序号ack之后的广播，再执行attach把会话加入房间
+     * @return 补发缓冲已不完整时返回false，此时只补发了缓冲中仍有的帧
+     */
+    public boolean resume(Session session, String room, long ack, Runnable attach) {
+        return sequenced.replayAfter(room, ack, frame -> dispatcher.send(session, frame), attach);
+    }
+
+    /**
+     * 记录一条已广播到房间的帧
+     */
+    public void record(String room, OutboundFrame frame) {
+        recent.add(room, frame);
+        if (log != null) {
+            log.append(room, frame.bytes());
+        }
+    }
+
+    /**
+     * 向会话回放房间最近的消息
+     */
+    public void replay(Session session, String room) {
+        if (replayCount <= 0) {
+            return;
+        }
+
+        List<OutboundFrame> frames;
+        if (log != null && recent.isCold(room)) {
+            // 内存中还没有该房间的缓冲（例如刚重启），从磁盘日志读取并预填缓冲
+            List<byte[]> stored = log.readLast(room, replayCount);
+            frames = new ArrayList<>(stored.size());
+            for (byte[] frame : stored) {
+                frames.add(OutboundFrame.wrap(frame));
+            }
+            if (!recent.seed(room, frames)) {
+                // 读取期间有新消息建立了缓冲，以缓冲为准
+                frames = recent.last(room, replayCount);
+            }
+        } else {
+            frames = recent.last(room, replayCount);
+        }
+        for (OutboundFrame frame : frames) {
+            dispatcher.send(session, frame);
+        }
+    }
+
+    public RecentMessages getRecent() {
+        return recent;
+    }
+
+    public MessageLog getLog() {
+        return log;
+    }
+
+    public void close() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                logger.error("Message log close error", e);
+            }
+        }
+    }
+}
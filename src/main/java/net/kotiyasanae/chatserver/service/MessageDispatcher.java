@@ -0,0 +1,165 @@
+package net.kotiyasanae.chatserver.service;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.codec.WireProtocol;
+import net.kotiyasanae.chatserver.metrics.ChatMetrics;
+import net.kotiyasanae.chatserver.model.Message;
+import net.kotiyasanae.chatserver.pipeline.EncodeStage;
+import net.kotiyasanae.chatserver.pipeline.MessageContext;
+import net.kotiyasanae.chatserver.pipeline.MessagePipeline;
+import net.kotiyasanae.chatserver.websocket.OverflowPolicy;
+import net.kotiyasanae.chatserver.websocket.SessionOutbox;
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 负责把消息投递到各会话的出站队列
+ * <p>
+ * 配置了分片时由 {@link FanoutShards} 的线程并行投递，否则在调用线程上逐个放入
+ */
+public class MessageDispatcher {
+    private final Map<Session, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+    private final int outboxCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final MessagePipeline outbound;
+    private final FanoutShards shards;
+
+    public MessageDispatcher(int outboxCapacity, OverflowPolicy overflowPolicy) {
+        this(outboxCapacity, overflowPolicy, 0);
+    }
+
+    /**
+     * @param fanoutShards 并行投递的分片数，0表示在调用线程上投递
+     */
+    public MessageDispatcher(int outboxCapacity, OverflowPolicy overflowPolicy, int fanoutShards) {
+        this(outboxCapacity, overflowPolicy, new MessagePipeline("outbound",
+                Collections.singletonList(new EncodeStage()), null, null), fanoutShards);
+    }
+
+    /**
+     * @param outbound 出站管道，最后一个阶段须产生帧
+     */
+    public MessageDispatcher(int outboxCapacity, OverflowPolicy overflowPolicy, MessagePipeline outbound) {
+        this(outboxCapacity, overflowPolicy, outbound, 0);
+    }
+
+    public MessageDispatcher(int outboxCapacity, OverflowPolicy overflowPolicy, MessagePipeline outbound,
+                             int fanoutShards) {
+        this.outboxCapacity = outboxCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.outbound = outbound;
+        this.shards = fanoutShards > 0 ? new FanoutShards(fanoutShards, this::deliver) : null;
+    }
+
+    public static MessageDispatcher create(ChatConfig config) {
+        return new MessageDispatcher(config.getOutboxCapacity(), config.getOutboxOverflowPolicy(),
+                config.getFanoutShards());
+    }
+
+    /**
+     * 为新连接创建出站队列
+     */
+    public SessionOutbox open(Session session) {
+        return outboxes.computeIfAbsent(session,
+                s -> new SessionOutbox(s, outboxCapacity, overflowPolicy, WireProtocol.of(s)));
+    }
+
+    /**
+     * 连接断开时释放出站队列
+     * @return 释放的出站队列，已释放过时返回null
+     */
+    public SessionOutbox close(Session session) {
+        SessionOutbox outbox = outboxes.remove(session);
+        if (outbox != null) {
+            outbox.close();
+        }
+        return outbox;
+    }
+
+    /** 当前打开的会话数 */
+    public int getSessionCount() {
+        return outboxes.size();
+    }
+
+    public SessionOutbox getOutbox(Session session) {
+        return outboxes.get(session);
+    }
+
+    /**
+     * 让消息经过出站管道，得到可共享的帧
+     * @return 被过滤或编码失败时返回null
+     */
+    public OutboundFrame encode(Message message) {
+        MessageContext context = new MessageContext(message);
+        return outbound.run(context) ? context.getFrame() : null;
+    }
+
+    /**
+     * 发送消息给指定会话
+     */
+    public void send(Session session, Message message) {
+        OutboundFrame frame = encode(message);
+        if (frame != null) {
+            send(session, frame);
+        }
+    }
+
+    public void send(Session session, OutboundFrame frame) {
+        if (shards != null) {
+            shards.send(session, frame);
+        } else {
+            deliver(session, frame);
+        }
+    }
+
+    private void deliver(Session session, OutboundFrame frame) {
+        SessionOutbox outbox = outboxes.get(session);
+        if (outbox != null && session.isOpen()) {
+            outbox.offer(frame);
+        }
+    }
+
+    public MessagePipeline getOutboundPipeline() {
+        return outbound;
+    }
+
+    /** 并行投递的分片，未开启时返回null */
+    public FanoutShards getShards() {
+        return shards;
+    }
+
+    /**
+     * 将同一帧投递给一组会话；接收者在调用时确定，分片投递时调用返回后各分片才陆续放入出站队列
+     */
+    public void broadcast(OutboundFrame frame, Iterable<Session> sessions, Session excludeSession) {
+        long start = System.nanoTime();
+        if (shards != null) {
+            int recipients = shards.publish(frame, sessions, excludeSession,
+                    () -> ChatMetrics.broadcastLatency.recordSince(start));
+            ChatMetrics.broadcastRecipients.add(recipients);
+            return;
+        }
+        int recipients = 0;
+        for (Session session : sessions) {
+            if (session != excludeSession) {
+                deliver(session, frame);
+                recipients++;
+            }
+        }
+        ChatMetrics.broadcastRecipients.add(recipients);
+        ChatMetrics.broadcastLatency.recordSince(start);
+    }
+
+    /**
+     * 服务器停止时调用，停止分片线程
+     */
+    public void shutdown() {
+        if (shards != null) {
+            shards.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.kotiyasanae.chatserver.service;
+
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.model.Message;
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线状态服务，通过 USER_LIST 消息发送增量和快照
+ * <p>
+ * 增量: "D&lt;版本&gt;\n+alice\n-bob"，同一时间窗口内的变化合并为一帧广播，版本号逐帧加一<br>
+ * 快照: "S&lt;版本&gt;\nalice\nbob"，只发给新加入的会话或主动请求的会话
+ * <p>
+ * 客户端收到快照后应用后续版本的增量；发现版本不连续时发送 USER_LIST 消息重新请求快照
+ */
+public class PresenceService {
+    private static final String SNAPSHOT_COALESCE_KEY = "presence-snapshot";
+
+    private final UserRegistry users;
+    private final MessageDispatcher dispatcher;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // 以下字段均由this保护
+    private final Set<String> online = new LinkedHashSet<>();
+    private Map<String, Boolean> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private long version;
+    private OutboundFrame snapshotFrame;
+
+    public PresenceService(UserRegistry users, MessageDispatcher dispatcher, long windowMillis) {
+        this.users = users;
+        this.dispatcher = dispatcher;
+        this.windowMillis = windowMillis;
+        this.scheduler = windowMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "presence-flusher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public void joined(String username) {
+        record(Collections.singletonList(username), true);
+    }
+
+    public void left(String username) {
+        record(Collections.singletonList(username), false);
+    }
+
+    /**
+     * 一批用户同时离开，不论窗口大小都合并为一帧增量
+     */
+    public void leftAll(Collection<String> usernames) {
+        if (!usernames.isEmpty()) {
+            record(usernames, false);
+        }
+    }
+
+    private void record(Collection<String> usernames, boolean isOnline) {
+        boolean flushNow = false;
+        synchronized (this) {
+            // 同一用户在窗口内多次变化只保留最后一次
+            for (String username : usernames) {
+                pending.remove(username);
+                pending.put(username, isOnline);
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                if (scheduler != null) {
+                    scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    flushNow = true;
+                }
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * 将窗口内累积的变化作为一帧增量广播
+     */
+    synchronized void flush() {
+        Map<String, Boolean> changes = pending;
+        pending = new LinkedHashMap<>();
+        flushScheduled = false;
+
+        StringBuilder content = new StringBuilder();
+        changes.forEach((username, isOnline) -> {
+            boolean changed = isOnline ? online.add(username) : online.remove(username);
+            if (changed) {
+                content.append('\n').append(isOnline ? '+' : '-').append(username);
+            }
+        });
+        if (content.length() == 0) {
+            return; // 窗口内的变化相互抵消
+        }
+
+        version++;
+        snapshotFrame = null;
+        content.insert(0, "D" + version);
+
+        Message delta = new Message(Message.MessageType.USER_LIST, content.toString(), "系统");
+        OutboundFrame frame = dispatcher.encode(delta);
+        if (frame != null) {
+            // 在锁内入队，保证各会话按版本顺序收到增量
+            dispatcher.broadcast(frame, users.sessions(), null);
+        }
+    }
+
+    /**
+     * 向会话发送当前版本的快照，同一版本的快照只编码一次
+     */
+    public synchronized void sendSnapshot(Session session) {
+        if (snapshotFrame == null) {
+            StringBuilder content = new StringBuilder("S").append(version);
+            for (String username : online) {
+                content.append('\n').append(username);
+            }
+            Message snapshot = new Message(Message.MessageType.USER_LIST, content.toString(), "系统");
+            OutboundFrame frame = dispatcher.encode(snapshot);
+            if (frame == null) {
+                return;
+            }
+            snapshotFrame = frame.coalescing(SNAPSHOT_COALESCE_KEY);
+        }
+        dispatcher.send(session, snapshotFrame);
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+}
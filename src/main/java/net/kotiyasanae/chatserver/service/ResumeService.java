@@ -0,0 +1,196 @@
+package net.kotiyasanae.chatserver.service;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 会话恢复令牌：加入聊天室时发给客户端，连接异常断开后在宽限期内凭令牌接管原来的用户名和房间
+ * <p>
+ * 异常断开的会话先“挂起”：用户名、房间成员和在线状态都保持不变，不广播离开；
+ * 宽限期内没有恢复的，由定时清理批量交给过期回调按正常断开处理。令牌只能使用一次，恢复后换发新令牌
+ */
+public class ResumeService {
+    private static final Logger logger = LoggerFactory.getLogger(ResumeService.class);
+    private static final long SWEEP_MILLIS = 1000;
+
+    private final long graceMillis;
+    private final Consumer<List<Session>> expiredHandler;
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService scheduler;
+
+    // 以下字段均由this保护
+    private final Map<String, Entry> byToken = new HashMap<>();
+    private final Map<Session, Entry> bySession = new HashMap<>();
+    // 按挂起时间排序，宽限期相同，队首最先过期
+    private final ArrayDeque<Entry> parked = new ArrayDeque<>();
+
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private static final class Entry {
+        final String token;
+        final Session session;
+        // 挂起后的过期时间，0表示会话仍在线
+        long deadline;
+
+        Entry(String token, Session session) {
+            this.token = token;
+            this.session = session;
+        }
+    }
+
+    /**
+     * @param graceMillis 宽限期，0表示不发令牌、断开即离开
+     * @param expiredHandler 宽限期内未恢复的会话，在清理线程上批量调用
+     */
+    public ResumeService(long graceMillis, Consumer<List<Session>> expiredHandler) {
+        this.graceMillis = graceMillis;
+        this.expiredHandler = expiredHandler;
+        if (graceMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "resume-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    public static ResumeService create(ChatConfig config, Consumer<List<Session>> expiredHandler) {
+        return new ResumeService(config.getResumeGraceMillis(), expiredHandler);
+    }
+
+    public boolean isEnabled() {
+        return graceMillis > 0;
+    }
+
+    /**
+     * 为已加入的会话发放令牌，该会话之前的令牌作废
+     * @return 令牌，未开启时返回null
+     */
+    public synchronized String issue(Session session) {
+        if (graceMillis <= 0) {
+            return null;
+        }
+        Entry previous = bySession.remove(session);
+        if (previous != null) {
+            byToken.remove(previous.token);
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        Entry entry = new Entry(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), session);
+        byToken.put(entry.token, entry);
+        bySession.put(session, entry);
+        return entry.token;
+    }
+
+    /**
+     * 会话断开时调用
+     * @param resumable 是否允许恢复（异常断开）
+     * @return 已挂起返回true，此时不应释放用户名和房间；没有令牌或不允许恢复时返回false并作废令牌
+     */
+    public synchronized boolean park(Session session, boolean resumable) {
+        Entry entry = bySession.get(session);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.deadline > 0) {
+            return true; // 已挂起，例如心跳驱逐后Jetty再次通知关闭
+        }
+        if (!resumable) {
+            bySession.remove(session);
+            byToken.remove(entry.token);
+            return false;
+        }
+        entry.deadline = System.currentTimeMillis() + graceMillis;
+        parked.add(entry);
+        return true;
+    }
+
+    /**
+     * 凭令牌恢复，令牌随即作废。原会话可能已挂起，也可能是尚未被发现的半开连接
+     * @return 原会话，令牌无效或已过期时返回null
+     */
+    public synchronized Session resume(String token) {
+        Entry entry = byToken.remove(token);
+        if (entry == null) {
+            rejected.increment();
+            return null;
+        }
+        bySession.remove(entry.session);
+        entry.deadline = -1; // 留在挂起队列中的条目由清理跳过
+        resumed.increment();
+        return entry.session;
+    }
+
+    /** 挂起等待恢复的会话数 */
+    public synchronized int getParkedCount() {
+        int count = 0;
+        for (Entry entry : parked) {
+            if (entry.deadline > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getResumedCount() {
+        return resumed.sum();
+    }
+
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private void sweep() {
+        List<Session> batch = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Entry entry; (entry = parked.peek()) != null && entry.deadline <= now; ) {
+                parked.poll();
+                if (entry.deadline > 0) {
+                    bySession.remove(entry.session);
+                    byToken.remove(entry.token);
+                    batch.add(entry.session);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        expired.add(batch.size());
+        try {
+            expiredHandler.accept(batch);
+        } catch (RuntimeException e) {
+            logger.error("Failed to release expired sessions", e);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package net.kotiyasanae.chatserver.service;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 房间注册表，维护每个房间的成员集合以及每个会话加入的房间
+ * 房间内广播只遍历该房间的成员
+ */
+public class RoomRegistry {
+    public static final String DEFAULT_ROOM = "lobby";
+    public static final int MAX_ROOM_NAME_LENGTH = 20;
+    public static final int MAX_ROOMS_PER_SESSION = 10;
+
+    private final Map<String, Set<Session>> rooms = new ConcurrentHashMap<>();
+    private final Map<Session, Membership> memberships = new ConcurrentHashMap<>();
+
+    /**
+     * 单个会话的房间状态
+     */
+    private static final class Membership {
+        private final List<String> joined = new ArrayList<>();
+        private String current;
+    }
+
+    public RoomRegistry() {
+        rooms.put(DEFAULT_ROOM, ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * 房间名是否合法
+     */
+    public static boolean isValidRoomName(String room) {
+        if (room == null || room.isEmpty() || room.length() > MAX_ROOM_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < room.length(); i++) {
+            if (Character.isWhitespace(room.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 加入房间并设为当前房间
+     * @return 加入成功或已在该房间返回true，超过房间数量上限返回false
+     */
+    public boolean join(Session session, String room) {
+        Membership membership = memberships.computeIfAbsent(session, s -> new Membership());
+        synchronized (membership) {
+            if (!membership.joined.contains(room)) {
+                if (membership.joined.size() >= MAX_ROOMS_PER_SESSION) {
+                    return false;
+                }
+                membership.joined.add(room);
+                addMember(room, session);
+            }
+            membership.current = room;
+            return true;
+        }
+    }
+
+    /**
+     * 切换当前房间，只能切换到已加入的房间
+     */
+    public boolean switchTo(Session session, String room) {
+        Membership membership = memberships.get(session);
+        if (membership == null) {
+            return false;
+        }
+        synchronized (membership) {
+            if (!membership.joined.contains(room)) {
+                return false;
+            }
+            membership.current = room;
+            return true;
+        }
+    }
+
+    /**
+     * 离开房间；离开当前房间时切换到最近加入的其他房间，全部离开后回到默认房间
+     * @return 离开后的当前房间，未加入该房间返回null
+     */
+    public String leave(Session session, String room) {
+        Membership membership = memberships.get(session);
+        if (membership == null) {
+            return null;
+        }
+        synchronized (membership) {
+            if (!membership.joined.remove(room)) {
+                return null;
+            }
+            removeMember(room, session);
+
+            if (membership.joined.isEmpty()) {
+                membership.joined.add(DEFAULT_ROOM);
+                addMember(DEFAULT_ROOM, session);
+            }
+            if (room.equals(membership.current)) {
+                membership.current = membership.joined.get(membership.joined.size() - 1);
+            }
+            return membership.current;
+        }
+    }
+
+    /**
+     * 会话断开时离开所有房间
+     * @return 之前加入的房间
+     */
+    public List<String> leaveAll(Session session) {
+        Membership membership = memberships.remove(session);
+        if (membership == null) {
+            return Collections.emptyList();
+        }
+        synchronized (membership) {
+            for (String room : membership.joined) {
+                removeMember(room, session);
+            }
+            return new ArrayList<>(membership.joined);
+        }
+    }
+
+    /**
+     * 断线重连时把旧会话的房间状态（已加入的房间和当前房间）转给新会话；
+     * 各房间的成员集合由 {@link #replaceMember} 逐个替换
+     * @return 已加入的房间
+     */
+    public List<String> transferMembership(Session from, Session to) {
+        Membership membership = memberships.remove(from);
+        if (membership == null) {
+            return Collections.emptyList();
+        }
+        synchronized (membership) {
+            memberships.put(to, membership);
+            return new ArrayList<>(membership.joined);
+        }
+    }
+
+    /**
+     * 在房间的成员集合中用新会话替换旧会话
+     */
+    public void replaceMember(String room, Session from, Session to) {
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(to);
+            members.remove(from);
+            return members;
+        });
+    }
+
+    /**
+     * 会话当前所在房间，未加入任何房间时返回null
+     */
+    public String currentRoom(Session session) {
+        Membership membership = memberships.get(session);
+        if (membership == null) {
+            return null;
+        }
+        synchronized (membership) {
+            return membership.current;
+        }
+    }
+
+    public boolean isMember(Session session, String room) {
+        Set<Session> members = rooms.get(room);
+        return members != null && members.contains(session);
+    }
+
+    public List<String> joinedRooms(Session session) {
+        Membership membership = memberships.get(session);
+        if (membership == null) {
+            return Collections.emptyList();
+        }
+        synchronized (membership) {
+            return new ArrayList<>(membership.joined);
+        }
+    }
+
+    /**
+     * 房间成员（实时视图），房间不存在时返回空集合
+     */
+    public Set<Session> members(String room) {
+        Set<Session> members = rooms.get(room);
+        return members != null ? members : Collections.emptySet();
+    }
+
+    /**
+     * 所有房间及其人数
+     */
+    public Map<String, Integer> roomSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        rooms.forEach((room, members) -> sizes.put(room, members.size()));
+        return sizes;
+    }
+
+    private void addMember(String room, Session session) {
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(session);
+            return members;
+        });
+    }
+
+    private void removeMember(String room, Session session) {
+        // 空房间（默认房间除外）随最后一个成员离开而删除
+        rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(session);
+            return members.isEmpty() && !DEFAULT_ROOM.equals(name) ? null : members;
+        });
+    }
+}
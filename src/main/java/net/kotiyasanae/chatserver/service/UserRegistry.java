@@ -0,0 +1,88 @@
+package net.kotiyasanae.chatserver.service;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 会话与用户名的双向索引
+ * 用户名通过putIfAbsent原子占用，按用户名或会话查找都是常数时间
+ */
+public class UserRegistry {
+    private final Map<String, Session> sessionsByName = new ConcurrentHashMap<>();
+    private final Map<Session, String> namesBySession = new ConcurrentHashMap<>();
+
+    /**
+     * 为会话占用用户名，会话已有的其他用户名会被释放
+     * @return 占用成功返回true，用户名已被其他会话占用返回false
+     */
+    public boolean claim(Session session, String username) {
+        if (sessionsByName.putIfAbsent(username, session) != null) {
+            return false;
+        }
+
+        String previous = namesBySession.put(session, username);
+        if (previous != null && !previous.equals(username)) {
+            sessionsByName.remove(previous, session);
+        }
+        return true;
+    }
+
+    /**
+     * 释放会话占用的用户名
+     * @return 被释放的用户名，会话未登录返回null
+     */
+    public String release(Session session) {
+        String username = namesBySession.remove(session);
+        if (username != null) {
+            sessionsByName.remove(username, session);
+        }
+        return username;
+    }
+
+    /**
+     * 把旧会话的用户名转给新会话，用于断线重连，期间用户名一直被占用
+     * @return 转移的用户名，旧会话已释放时返回null
+     */
+    public String transfer(Session from, Session to) {
+        String username = namesBySession.remove(from);
+        if (username != null) {
+            namesBySession.put(to, username);
+            sessionsByName.replace(username, from, to);
+        }
+        return username;
+    }
+
+    public String getUsername(Session session) {
+        return namesBySession.get(session);
+    }
+
+    public Session getSession(String username) {
+        return sessionsByName.get(username);
+    }
+
+    public boolean isTaken(String username) {
+        return sessionsByName.containsKey(username);
+    }
+
+    /**
+     * 所有已登录会话（实时视图）
+     */
+    public Set<Session> sessions() {
+        return namesBySession.keySet();
+    }
+
+    /**
+     * 所有在线用户名（实时视图）
+     */
+    public Collection<String> usernames() {
+        return sessionsByName.keySet();
+    }
+
+    public int size() {
+        return namesBySession.size();
+    }
+}
@@ -1,33 +1,156 @@
 // server/src/main/java/com/chatroom/websocket/ChatWebSocketHandler.java
 package net.kotiyasanae.chatserver.websocket;
 
+import net.kotiyasanae.chatserver.codec.BinaryCodec;
+import net.kotiyasanae.chatserver.codec.MessageCodec;
+import net.kotiyasanae.chatserver.heartbeat.HeartbeatMonitor;
+import net.kotiyasanae.chatserver.metrics.ChatMetrics;
+import net.kotiyasanae.chatserver.ratelimit.AdmissionControl;
+import net.kotiyasanae.chatserver.ratelimit.RateLimiter;
 import net.kotiyasanae.chatserver.service.ChatService;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketFrame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
 
 @WebSocket
 public class ChatWebSocketHandler {
+    private static final Logger logger = LoggerFactory.getLogger(ChatWebSocketHandler.class);
     private final ChatService chatService;
+    private final AdmissionControl.Ticket admission;
+    private RateLimiter.Quota quota;
+    private HeartbeatMonitor.Heartbeat heartbeat;
+    // 处于连续被限流状态，期间只提示一次
+    private boolean limited;
 
     public ChatWebSocketHandler() {
+        this(null);
+    }
+
+    /**
+     * @param admission 升级时准入的名额，连接关闭时归还
+     */
+    public ChatWebSocketHandler(AdmissionControl.Ticket admission) {
         this.chatService = new ChatService();
+        this.admission = admission;
     }
 
     @OnWebSocketConnect
     public void onConnect(Session session) throws Exception {
+        if (admission != null && !admission.connect()) {
+            // 升级耗时超过准入超时，名额已被回收，不再占用连接
+            session.close(StatusCode.TRY_AGAIN_LATER, "Admission expired");
+            return;
+        }
+        InetSocketAddress remote = session.getRemoteAddress();
+        quota = ChatService.getRateLimiter().open(remote == null ? null : remote.getAddress());
+        heartbeat = ChatService.getHeartbeat().register(session);
         chatService.handleConnect(session);
     }
 
     @OnWebSocketClose
     public void onClose(Session session, int statusCode, String reason) {
-        chatService.handleDisconnect(session);
+        if (admission != null) {
+            admission.close();
+        }
+        if (quota != null) {
+            quota.close();
+        }
+        if (heartbeat != null) {
+            heartbeat.close();
+        }
+        chatService.handleDisconnect(session, isResumable(statusCode));
+    }
+
+    /**
+     * 只有异常终止允许凭令牌恢复：连接中断（1006，包括I/O错误）和服务端内部错误（1011）。
+     * 客户端发起的关闭（1000、1001离开页面等）都表示主动离开；心跳超时在驱逐时已按可恢复处理
+     */
+    private static boolean isResumable(int statusCode) {
+        return statusCode == StatusCode.ABNORMAL || statusCode == StatusCode.SERVER_ERROR;
+    }
+
+    @OnWebSocketError
+    public void onError(Session session, Throwable cause) {
+        // 对端断开时写出失败很常见，随后会收到onClose，这里不打印堆栈
+        logger.debug("WebSocket error: {}", cause.toString());
+    }
+
+    /**
+     * 任何入站帧（包括 pong）都说明连接还活着
+     */
+    @OnWebSocketFrame
+    public void onFrame(Session session, Frame frame) {
+        if (heartbeat != null) {
+            heartbeat.touch();
+        }
     }
 
     @OnWebSocketMessage
     public void onMessage(Session session, String message) throws Exception {
+        ChatMetrics.framesInText.inc();
+        ChatMetrics.bytesIn.add(utf8Length(message));
+        if (!acquire(session, MessageCodec.isCommand(message))) {
+            return;
+        }
         chatService.handleMessage(session, message);
     }
+
+    @OnWebSocketMessage
+    public void onBinaryMessage(Session session, byte[] payload, int offset, int length) {
+        ChatMetrics.framesInBinary.inc();
+        ChatMetrics.bytesIn.add(length);
+        if (!acquire(session, BinaryCodec.isCommand(payload, offset, length))) {
+            return;
+        }
+        if (offset != 0 || length != payload.length) {
+            payload = Arrays.copyOfRange(payload, offset, offset + length);
+        }
+        chatService.handleBinaryMessage(session, payload);
+    }
+
+    /**
+     * 在解析消息之前限流，超出额度的消息直接丢弃
+     */
+    private boolean acquire(Session session, boolean command) {
+        if (quota == null) {
+            return false; // 准入已过期，连接正在关闭
+        }
+        if (quota.tryAcquire(command ? RateLimiter.Kind.COMMAND : RateLimiter.Kind.CHAT)) {
+            limited = false;
+            return true;
+        }
+        if (!limited) {
+            limited = true;
+            chatService.handleRateLimited(session);
+        }
+        return false;
+    }
+
+    /**
+     * 文本帧在线路上的UTF-8字节数，不实际编码
+     */
+    private static int utf8Length(String text) {
+        int bytes = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800) {
+                // 代理对的两个char共4字节，其余3字节
+                bytes += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
 }
\ No newline at end of file
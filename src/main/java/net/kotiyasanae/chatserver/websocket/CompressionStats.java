@@ -0,0 +1,120 @@
+package net.kotiyasanae.chatserver.websocket;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.extensions.Extension;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.common.extensions.ExtensionStack;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个连接的permessage-deflate统计：压缩前后字节数、压缩耗时、因过小而跳过压缩的帧数
+ */
+public class CompressionStats {
+    private static final LongAdder totalBytesIn = new LongAdder();
+    private static final LongAdder totalBytesOut = new LongAdder();
+    private static final LongAdder totalNanos = new LongAdder();
+    private static final LongAdder totalCompressed = new LongAdder();
+    private static final LongAdder totalSkipped = new LongAdder();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong compressed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    void recordInput(long bytes) {
+        compressed.incrementAndGet();
+        bytesIn.addAndGet(bytes);
+        totalCompressed.increment();
+        totalBytesIn.add(bytes);
+    }
+
+    void recordOutput(long bytes, long elapsedNanos) {
+        bytesOut.addAndGet(bytes);
+        nanos.addAndGet(elapsedNanos);
+        totalBytesOut.add(bytes);
+        totalNanos.add(elapsedNanos);
+    }
+
+    void recordSkipped() {
+        skipped.incrementAndGet();
+        totalSkipped.increment();
+    }
+
+    /**
+     * 会话协商了压缩时返回其统计，否则返回null
+     */
+    public static CompressionStats of(Session session) {
+        if (session instanceof WebSocketSession) {
+            Object outgoing = ((WebSocketSession) session).getOutgoingHandler();
+            if (outgoing instanceof ExtensionStack) {
+                for (Extension extension : ((ExtensionStack) outgoing).getExtensions()) {
+                    if (extension instanceof ThresholdDeflateExtension) {
+                        return ((ThresholdDeflateExtension) extension).getStats();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public long getBytesIn() { return bytesIn.get(); }
+
+    public long getBytesOut() { return bytesOut.get(); }
+
+    public long getCompressNanos() { return nanos.get(); }
+
+    public long getCompressedFrames() { return compressed.get(); }
+
+    public long getSkippedFrames() { return skipped.get(); }
+
+    /**
+     * 压缩后/压缩前，越小越好；尚未压缩过时为1
+     */
+    public double getRatio() {
+        return ratio(bytesIn.get(), bytesOut.get());
+    }
+
+    private static double ratio(long in, long out) {
+        return in == 0 ? 1.0 : (double) out / in;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("compressed=%d, skipped=%d, in=%dB, out=%dB, ratio=%.3f, cpu=%dus",
+                getCompressedFrames(), getSkippedFrames(), getBytesIn(), getBytesOut(), getRatio(),
+                getCompressNanos() / 1000);
+    }
+
+    /** 所有连接压缩前的字节数 */
+    public static long totalBytesIn() {
+        return totalBytesIn.sum();
+    }
+
+    /** 所有连接压缩后的字节数 */
+    public static long totalBytesOut() {
+        return totalBytesOut.sum();
+    }
+
+    /** 所有连接的压缩耗时（纳秒） */
+    public static long totalCompressNanos() {
+        return totalNanos.sum();
+    }
+
+    /** 压缩过的帧总数 */
+    public static long totalCompressedFrames() {
+        return totalCompressed.sum();
+    }
+
+    /** 低于阈值未压缩的帧总数 */
+    public static long totalSkippedFrames() {
+        return totalSkipped.sum();
+    }
+
+    /** 所有连接的总体压缩比 */
+    public static double totalRatio() {
+        return ratio(totalBytesIn.sum(), totalBytesOut.sum());
+    }
+}
@@ -0,0 +1,13 @@
+package net.kotiyasanae.chatserver.websocket;
+
+/**
+ * 出站队列已满时的处理策略
+ */
+public enum OverflowPolicy {
+    /** 丢弃队列中最旧的帧 */
+    DROP_OLDEST,
+    /** 用新帧替换队列中同类（相同合并键）的旧帧，无可合并时丢弃最旧的帧 */
+    COALESCE,
+    /** 断开跟不上的慢速客户端 */
+    DISCONNECT
+}
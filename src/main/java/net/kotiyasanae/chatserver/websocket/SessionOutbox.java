@@ -0,0 +1,287 @@
+package net.kotiyasanae.chatserver.websocket;
+
+import net.kotiyasanae.chatserver.codec.OutboundFrame;
+import net.kotiyasanae.chatserver.codec.WireProtocol;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个会话的有界出站队列
+ * 入队不阻塞调用线程，同一时间只有一帧在写，写完成回调后继续发送下一帧
+ */
+public class SessionOutbox implements WriteCallback {
+    private static final Logger logger = LoggerFactory.getLogger(SessionOutbox.class);
+
+    private static final LongAdder totalDepth = new LongAdder();
+    private static final LongAdder totalDropped = new LongAdder();
+    private static final LongAdder totalDisconnected = new LongAdder();
+    private static final LongAdder totalFailed = new LongAdder();
+    private static final LongAdder totalSent = new LongAdder();
+
+    private final Session session;
+    private final int capacity;
+    private final ArrayDeque<OutboundFrame> queue;
+    private final WireProtocol protocol;
+    // 二进制连接已收到定义的发送者ID，只在发送时访问，帧被丢弃不会漏掉定义
+    private final Set<Integer> knownSenders;
+    private volatile OverflowPolicy overflowPolicy;
+    // 会话生命周期锁：加入（可能在集群总线线程上完成）和断开清理互斥，与队列的锁分开
+    private final Object lifecycleLock = new Object();
+
+    // 以下字段均由this保护
+    private long dropped;
+    private boolean sending;
+    private boolean writing;
+    private boolean completedInline;
+    private boolean closed;
+
+    public SessionOutbox(Session session, int capacity, OverflowPolicy overflowPolicy) {
+        this(session, capacity, overflowPolicy, WireProtocol.JSON);
+    }
+
+    public SessionOutbox(Session session, int capacity, OverflowPolicy overflowPolicy, WireProtocol protocol) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.session = session;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayDeque<>(Math.min(capacity, 16));
+        this.protocol = protocol;
+        this.knownSenders = protocol == WireProtocol.BINARY ? new HashSet<>() : null;
+    }
+
+    /**
+     * 将帧放入队列，必要时开始异步发送
+     */
+    public void offer(OutboundFrame frame) {
+        boolean start = false;
+        boolean disconnect = false;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (queue.size() >= capacity && !makeRoom(frame)) {
+                disconnect = true;
+                closeQueue();
+            } else {
+                queue.addLast(frame);
+                totalDepth.increment();
+                if (!sending) {
+                    sending = true;
+                    start = true;
+                }
+            }
+        }
+
+        if (disconnect) {
+            totalDisconnected.increment();
+            logger.warn("Outbound queue full ({}), disconnecting slow consumer {}",
+                    capacity, session.getRemoteAddress());
+            session.close(StatusCode.POLICY_VIOLATION, "Slow consumer");
+        } else if (start) {
+            drain();
+        }
+    }
+
+    /**
+     * 按溢出策略腾出一个位置，返回false表示应断开连接
+     */
+    private boolean makeRoom(OutboundFrame incoming) {
+        switch (overflowPolicy) {
+            case DISCONNECT:
+                return false;
+            case COALESCE:
+                // 没有可合并的帧时退化为丢弃最旧的帧
+                if (!removeSuperseded(incoming)) {
+                    dropOldest();
+                }
+                return true;
+            case DROP_OLDEST:
+            default:
+                dropOldest();
+                return true;
+        }
+    }
+
+    private void dropOldest() {
+        queue.pollFirst();
+        recordDrop();
+    }
+
+    private boolean removeSuperseded(OutboundFrame incoming) {
+        String key = incoming.coalesceKey();
+        if (key == null) {
+            return false;
+        }
+        boolean removed = false;
+        Iterator<OutboundFrame> it = queue.iterator();
+        while (it.hasNext()) {
+            if (key.equals(it.next().coalesceKey())) {
+                it.remove();
+                recordDrop();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    private void recordDrop() {
+        dropped++;
+        totalDropped.increment();
+        totalDepth.decrement();
+    }
+
+    /**
+     * 依次写出队列中的帧；写操作同步完成时在当前线程继续循环，避免回调递归
+     */
+    private void drain() {
+        while (true) {
+            OutboundFrame frame;
+            synchronized (this) {
+                frame = queue.pollFirst();
+                if (frame == null) {
+                    sending = false;
+                    return;
+                }
+                totalDepth.decrement();
+                writing = true;
+                completedInline = false;
+            }
+
+            try {
+                if (protocol == WireProtocol.BINARY) {
+                    frame.sendBinaryTo(session, knownSenders, this);
+                } else {
+                    frame.sendTo(session, this);
+                }
+            } catch (RuntimeException e) {
+                // 无法编码的帧直接跳过，继续发送后续帧
+                logger.warn("Skipping frame for {}: {}", session.getRemoteAddress(), e.toString());
+                synchronized (this) {
+                    completedInline = true;
+                }
+            }
+
+            synchronized (this) {
+                writing = false;
+                if (!completedInline) {
+                    return; // 写操作仍在进行，由回调继续发送
+                }
+            }
+        }
+    }
+
+    @Override
+    public void writeSuccess() {
+        totalSent.increment();
+        synchronized (this) {
+            if (writing) {
+                completedInline = true;
+                return;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * 写失败说明连接已不可用：释放队列并断开底层连接，
+     * 随后Jetty触发的onClose（1006）走正常的断开、挂起恢复和清理流程
+     */
+    @Override
+    public void writeFailed(Throwable x) {
+        totalFailed.increment();
+        logger.debug("Send to {} failed: {}", session.getRemoteAddress(), x.getMessage());
+        boolean wasClosed;
+        synchronized (this) {
+            wasClosed = closed;
+            closeQueue();
+            writing = false;
+        }
+        if (!wasClosed) {
+            try {
+                session.disconnect();
+            } catch (IOException e) {
+                logger.debug("Disconnect failed for {}: {}", session.getRemoteAddress(), e.toString());
+            }
+        }
+    }
+
+    /**
+     * 会话断开时释放队列
+     */
+    public synchronized void close() {
+        closeQueue();
+    }
+
+    private void closeQueue() {
+        totalDepth.add(-queue.size());
+        queue.clear();
+        closed = true;
+        sending = false;
+    }
+
+    public Object getLifecycleLock() {
+        return lifecycleLock;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public WireProtocol getProtocol() {
+        return protocol;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int depth() {
+        return queue.size();
+    }
+
+    public synchronized long droppedCount() {
+        return dropped;
+    }
+
+    /** 所有会话当前排队的帧总数 */
+    public static long totalDepth() {
+        return totalDepth.sum();
+    }
+
+    /** 因队列溢出被丢弃或合并掉的帧总数 */
+    public static long totalDropped() {
+        return totalDropped.sum();
+    }
+
+    /** 因队列溢出被断开的会话总数 */
+    public static long totalDisconnected() {
+        return totalDisconnected.sum();
+    }
+
+    /** 写失败总数 */
+    public static long totalFailed() {
+        return totalFailed.sum();
+    }
+
+    /** 写出成功的帧总数 */
+    public static long totalSent() {
+        return totalSent.sum();
+    }
+}
@@ -0,0 +1,90 @@
+package net.kotiyasanae.chatserver.websocket;
+
+import net.kotiyasanae.chatserver.ChatConfig;
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带阈值的permessage-deflate：小于阈值的完整消息不压缩直接发送（RSV1为0），并记录压缩统计
+ * <p>
+ * 只有在没有压缩帧排队时才跳过压缩，保证帧的顺序不变。
+ * 压缩上下文在同一连接的消息之间保留（context takeover），相当于以之前的消息作为共享字典。
+ */
+public class ThresholdDeflateExtension extends PerMessageDeflateExtension {
+    private final int minBytes = ChatConfig.get().getDeflateMinBytes();
+    private final CompressionStats stats = new CompressionStats();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // 排队等待压缩的各条消息进入压缩流程的时间，按先进先出对应。父类按入队顺序逐条压缩，
+    // 消息的最后一帧交给下一层时取出队首结算
+    private final Queue<Long> compressStarts = new ConcurrentLinkedQueue<>();
+    // 上一条消息压缩完成的时间，只在父类串行执行的压缩流程中访问
+    private long lastFinish = System.nanoTime();
+
+    @Override
+    public void outgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode) {
+        byte opCode = frame.getOpCode();
+        if (!OpCode.isDataFrame(opCode)) {
+            super.outgoingFrame(frame, callback, batchMode);
+            return;
+        }
+
+        if (opCode != OpCode.CONTINUATION && frame.isFin()
+                && frame.getPayloadLength() < minBytes && inFlight.get() == 0) {
+            stats.recordSkipped();
+            super.nextOutgoingFrame(frame, callback, batchMode);
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        stats.recordInput(frame.getPayloadLength());
+        if (opCode != OpCode.CONTINUATION) {
+            compressStarts.offer(System.nanoTime());
+        }
+        super.outgoingFrame(frame, new WriteCallback() {
+            @Override
+            public void writeFailed(Throwable x) {
+                inFlight.decrementAndGet();
+                if (callback != null) {
+                    callback.writeFailed(x);
+                }
+            }
+
+            @Override
+            public void writeSuccess() {
+                inFlight.decrementAndGet();
+                if (callback != null) {
+                    callback.writeSuccess();
+                }
+            }
+        }, batchMode);
+    }
+
+    @Override
+    protected void nextOutgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode) {
+        if (OpCode.isDataFrame(frame.getOpCode())) {
+            long elapsed = 0;
+            if (frame.isFin()) {
+                Long queued = compressStarts.poll();
+                if (queued != null) {
+                    // 排在前一条消息后面等待的时间不计入本条的压缩耗时
+                    long now = System.nanoTime();
+                    elapsed = now - (queued - lastFinish > 0 ? queued : lastFinish);
+                    lastFinish = now;
+                }
+            }
+            stats.recordOutput(frame.getPayloadLength(), elapsed);
+        }
+        super.nextOutgoingFrame(frame, callback, batchMode);
+    }
+
+    public CompressionStats getStats() {
+        return stats;
+    }
+}